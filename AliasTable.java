@@ -0,0 +1,115 @@
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.SplittableRandom;
+
+/**
+ * Walker's alias table (Vose's construction): draws an index with probability proportional to
+ * its weight in constant time, whatever the number of indexes or how skewed the weights are.
+ * <br /><br />
+ * Built once; after that it is read-only, so any number of threads may sample it at the same
+ * time, each with its own random source. The table may also be mapped from a compiled
+ * catalog file, see {@link CatalogFile}.
+ */
+public class AliasTable {
+
+	private final DoubleBuffer m_prob;
+	private final IntBuffer m_alias;
+
+	/**
+	 * A table computed earlier, e.g. read back from a file.
+	 */
+	AliasTable(DoubleBuffer prob, IntBuffer alias)
+	{
+		if (prob.limit() != alias.limit() || prob.limit() == 0)
+			throw new IllegalArgumentException("bad alias table");
+		m_prob = prob;
+		m_alias = alias;
+	}
+
+	/**
+	 * @param weights
+	 *  Relative weight of every index; none negative, at least one positive.
+	 */
+	public AliasTable(double[] weights)
+	{
+		int n = weights.length;
+		if (n == 0)
+			throw new IllegalArgumentException("no weights");
+		double total = 0;
+		for (double weight : weights) {
+			if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight))
+				throw new IllegalArgumentException("bad weight: " + weight);
+			total += weight;
+		}
+		if (total <= 0)
+			throw new IllegalArgumentException("all weights are zero");
+
+		double[] prob = new double[n];
+		int[] alias = new int[n];
+
+		// Scale so the average column holds exactly 1, then pair each short column with a tall one
+		double[] scaled = new double[n];
+		int[] small = new int[n];
+		int[] large = new int[n];
+		int nSmall = 0, nLarge = 0;
+		for (int i = 0; i < n; i++) {
+			scaled[i] = weights[i] * n / total;
+			if (scaled[i] < 1)
+				small[nSmall++] = i;
+			else
+				large[nLarge++] = i;
+		}
+		while (nSmall > 0 && nLarge > 0) {
+			int s = small[--nSmall];
+			int l = large[--nLarge];
+			prob[s] = scaled[s];
+			alias[s] = l;
+			scaled[l] = (scaled[l] + scaled[s]) - 1;
+			if (scaled[l] < 1)
+				small[nSmall++] = l;
+			else
+				large[nLarge++] = l;
+		}
+		// Whatever is left is 1 up to rounding
+		while (nLarge > 0) {
+			int l = large[--nLarge];
+			prob[l] = 1;
+			alias[l] = l;
+		}
+		while (nSmall > 0) {
+			int s = small[--nSmall];
+			prob[s] = 1;
+			alias[s] = s;
+		}
+		m_prob = DoubleBuffer.wrap(prob);
+		m_alias = IntBuffer.wrap(alias);
+	}
+
+	public int size()
+	{
+		return m_prob.limit();
+	}
+
+	DoubleBuffer probabilities()
+	{
+		return m_prob.duplicate();
+	}
+
+	IntBuffer aliases()
+	{
+		return m_alias.duplicate();
+	}
+
+	/**
+	 * Draws an index from a column chosen uniformly at random and a coin in [0, 1).
+	 */
+	public int sample(int column, double coin)
+	{
+		return (coin < m_prob.get(column)) ? column : m_alias.get(column);
+	}
+
+	public int sample(SplittableRandom random)
+	{
+		return sample(random.nextInt(m_prob.limit()), random.nextDouble());
+	}
+}
@@ -0,0 +1,218 @@
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import util.MySession;
+
+/**
+ * Open-loop call arrivals.
+ * <br /><br />
+ * Calls are started at a configured rate whether or not earlier calls have finished, so a
+ * slow IVR does not lower the offered load. Every call carries its scheduled start time;
+ * {@link CallEngine} counts the calls that could not start on time, and sheds the ones that
+ * would have to wait for a session behind too many others.
+ */
+public class ArrivalScheduler {
+
+	public static final String MY_CLASS_TAG = "ArrivalScheduler";
+
+	/**
+	 * How the gaps between consecutive call starts are drawn.
+	 */
+	public enum Pattern {
+		/** Every gap is exactly 1 / rate. */
+		CONSTANT,
+		/** Exponentially distributed gaps with mean 1 / rate (Poisson arrivals). */
+		POISSON,
+		/** Gaps drawn uniformly from (1 &plusmn; jitter) / rate. */
+		UNIFORM
+	}
+
+	private final Pattern mPattern;
+	private final double mCallsPerSecond;
+	private final double mJitter;
+	private final SplittableRandom mRandom;
+
+	public ArrivalScheduler(Pattern pattern, double callsPerSecond, double jitter)
+	{
+		this(pattern, callsPerSecond, jitter, new SplittableRandom());
+	}
+
+	/**
+	 * @param random
+	 *  Source of the random gaps, e.g. {@link RandomStreams#forArrivals()} for a repeatable schedule.
+	 */
+	public ArrivalScheduler(Pattern pattern, double callsPerSecond, double jitter, SplittableRandom random)
+	{
+		if (callsPerSecond <= 0)
+			throw new IllegalArgumentException(MY_CLASS_TAG + ": rate must be positive: " + callsPerSecond);
+		if (jitter < 0 || jitter > 1)
+			throw new IllegalArgumentException(MY_CLASS_TAG + ": jitter must be within [0, 1]: " + jitter);
+		mPattern = pattern;
+		mCallsPerSecond = callsPerSecond;
+		mJitter = jitter;
+		mRandom = random;
+	}
+
+	/**
+	 * Builds the scheduler described by <code>callgen.rate</code>, <code>callgen.arrival</code>
+	 * and <code>callgen.jitter</code>, or returns null when no rate is configured (closed loop).
+	 */
+	public static ArrivalScheduler fromConfig(SplittableRandom random)
+	{
+		double rate = GeneratorConfig.getDouble("rate", 0);
+		if (rate <= 0)
+			return null;
+		return new ArrivalScheduler(configuredPattern(), rate, configuredJitter(), random);
+	}
+
+	/**
+	 * Arrival pattern given by <code>callgen.arrival</code> (default constant).
+	 */
+	public static Pattern configuredPattern()
+	{
+		return Pattern.valueOf(GeneratorConfig.getString("arrival", "constant").trim().toUpperCase());
+	}
+
+	/**
+	 * Uniform jitter given by <code>callgen.jitter</code> (default 0.5).
+	 */
+	public static double configuredJitter()
+	{
+		return GeneratorConfig.getDouble("jitter", 0.5);
+	}
+
+	/**
+	 * Gap to the next call start, in nanoseconds.
+	 */
+	long nextIntervalNanos()
+	{
+		return nextIntervalNanos(mCallsPerSecond);
+	}
+
+	/**
+	 * Gap to the next call start at the given rate, in nanoseconds.
+	 */
+	long nextIntervalNanos(double callsPerSecond)
+	{
+		double meanNanos = TimeUnit.SECONDS.toNanos(1) / callsPerSecond;
+		switch (mPattern) {
+		case POISSON:
+			return (long)(-Math.log(1.0 - mRandom.nextDouble()) * meanNanos);
+		case UNIFORM:
+			return (long)(meanNanos * (1.0 - mJitter + (2.0 * mJitter * mRandom.nextDouble())));
+		case CONSTANT:
+		default:
+			return (long)meanNanos;
+		}
+	}
+
+	/**
+	 * The next gap as a number of calls offered: 1 for constant arrivals, drawn around 1 otherwise.
+	 */
+	private double nextGapInCalls()
+	{
+		return nextIntervalNanos(1.0) / (double)TimeUnit.SECONDS.toNanos(1);
+	}
+
+	/**
+	 * Time from <code>from</code> until the profile has offered <code>calls</code> more calls, found
+	 * by integrating its rate in steps of {@link CallEngine#CONTROL_INTERVAL_MS}, each taken at the
+	 * rate of its middle. Returns <code>end</code> if the profile ends first.
+	 */
+	private static long advance(LoadProfile profile, long start, long from, long end, double calls)
+	{
+		long stepNanos = TimeUnit.MILLISECONDS.toNanos(CallEngine.CONTROL_INTERVAL_MS);
+		double nanosPerSecond = TimeUnit.SECONDS.toNanos(1);
+		long t = from;
+		while (t < end) {
+			long step = Math.min(stepNanos, end - t);
+			double rate = profile.valueAt(TimeUnit.NANOSECONDS.toMillis(t - start + step / 2));
+			double offered = rate * step / nanosPerSecond;
+			if (offered >= calls)
+				return t + (long)(calls * nanosPerSecond / rate);
+			calls -= offered;
+			t += step;
+		}
+		return end;
+	}
+
+	/**
+	 * Starts calls as a {@link LoadProfile.Mode#RATE} profile asks, until the profile ends, then
+	 * waits for the calls still running. The gaps are drawn at one call per second and stretched
+	 * by the profile's rate over the time they cover (time rescaling), so a ramp from zero starts
+	 * its first calls as soon as the rate has offered one, and a spike that comes during a long
+	 * gap shortens it. While the profile's rate is zero no calls are started. The arrival pattern
+	 * and jitter of this scheduler still apply; its fixed rate is not used.
+	 */
+	public void run(CallEngine engine, LoadProfile profile, Logger log) throws InterruptedException
+	{
+		MySession.myConsole.printf("%s: Following load profile %s for %d s (%s arrivals)%n",
+				MY_CLASS_TAG, profile, profile.getDurationMillis() / 1000, mPattern);
+		log.Write(String.format("Open loop profile start: %s, duration = %d s, arrival = %s",
+				profile, profile.getDurationMillis() / 1000, mPattern));
+
+		long start = System.nanoTime();
+		long end = start + TimeUnit.MILLISECONDS.toNanos(profile.getDurationMillis());
+		long reportNanos = TimeUnit.MILLISECONDS.toNanos(CallEngine.PROGRESS_INTERVAL_MS);
+		long nextReport = start;
+		long next = advance(profile, start, start, end, nextGapInCalls());
+		while (!engine.isStopped()) {
+			// Progress is reported on time even while a long gap is waited out
+			while (nextReport <= next && nextReport < end) {
+				waitUntil(nextReport);
+				long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(nextReport - start);
+				engine.reportProgress(elapsedMillis, profile.valueAt(elapsedMillis));
+				nextReport += reportNanos;
+			}
+			if (next >= end)
+				break;
+			waitUntil(next);
+			engine.startCall(next);
+			next = advance(profile, start, next, end, nextGapInCalls());
+		}
+		engine.awaitIdle();
+
+		log.Write(String.format("Open loop profile done: started = %d, completed = %d, late = %d, max late = %d ms, mean late = %d ms, shed = %d",
+				engine.getStartedCalls(), engine.getCompletedCalls(), engine.getLateStarts(),
+				engine.getMaxLateMillis(), engine.getMeanLateMillis(), engine.getShedStarts()));
+	}
+
+	private static void waitUntil(long nanos) throws InterruptedException
+	{
+		long wait;
+		while ((wait = nanos - System.nanoTime()) > 0) {
+			LockSupport.parkNanos(wait);
+			if (Thread.interrupted())
+				throw new InterruptedException();
+		}
+	}
+
+	/**
+	 * Starts <code>numberOfCalls</code> calls on the engine at the configured rate and waits until
+	 * all of them have finished. Start times are computed from the schedule, not from the time the
+	 * previous start was issued, so a late start does not push back the ones after it.
+	 */
+	public void run(CallEngine engine, int numberOfCalls, Logger log) throws InterruptedException
+	{
+		MySession.myConsole.printf("%s: %d calls at %.2f calls/s (%s)%n",
+				MY_CLASS_TAG, numberOfCalls, mCallsPerSecond, mPattern);
+		log.Write(String.format("Open loop start: calls = %d, rate = %.3f/s, arrival = %s, jitter = %.2f",
+				numberOfCalls, mCallsPerSecond, mPattern, mJitter));
+
+		long next = System.nanoTime();
+		for (int i = 0; i < numberOfCalls && !engine.isStopped(); i++) {
+			waitUntil(next);
+			engine.startCall(next);
+			next += nextIntervalNanos();
+		}
+		engine.awaitIdle();
+
+		MySession.myConsole.printf("%s: %d of %d calls started late (max %d ms, mean %d ms), %d shed%n",
+				MY_CLASS_TAG, engine.getLateStarts(), numberOfCalls,
+				engine.getMaxLateMillis(), engine.getMeanLateMillis(), engine.getShedStarts());
+		log.Write(String.format("Open loop done: started = %d, completed = %d, late = %d, max late = %d ms, mean late = %d ms, shed = %d",
+				engine.getStartedCalls(), engine.getCompletedCalls(), engine.getLateStarts(),
+				engine.getMaxLateMillis(), engine.getMeanLateMillis(), engine.getShedStarts()));
+	}
+}
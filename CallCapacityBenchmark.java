@@ -0,0 +1,251 @@
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import com.skype.api.Account;
+
+import util.AccountPool;
+import util.CallHandle;
+import util.HashedWheelTimer;
+import util.MySession;
+
+/**
+ * How many concurrent simulated calls fit in a GB of heap, per thread mode.
+ * <br /><br />
+ * The calls go through a {@link CallEngine}, open loop, as a rate-driven run's would: each takes
+ * a session from an {@link AccountPool} and runs the way {@link CallGenerator#doMakeCall} does -
+ * it waits on a {@link CallHandle} for the answer, plays a path with a {@link DtmfSequencer} on a
+ * shared {@link HashedWheelTimer} and waits on the handle for the hang-up - but the sessions are
+ * not connected to any SkypeKit runtime: timer tasks answer and end the calls, and the digits go
+ * nowhere. The numbers show the cost of the engine, its threads and the call's own state alone. Platform thread stacks live outside the heap, so the process resident size is
+ * reported as well; for platform threads that figure, or the thread count at which the JVM can
+ * no longer create threads, is the real limit.
+ * <br /><br />
+ * With fewer sessions than calls the run shows the engine's backpressure: only as many calls
+ * as there are sessions are in progress, at most <code>callgen.maxPending</code> (default the
+ * number of sessions) wait for one, and the rest are shed.
+ * <br /><br />
+ * Usage: <code>java CallCapacityBenchmark [platform|virtual] [calls] [holdSeconds] [sessions]</code>
+ * (defaults: virtual, 10000, 30, one session per call). Run both modes with the same
+ * <code>-Xmx</code> to compare.
+ */
+public class CallCapacityBenchmark {
+
+	public static final String MY_CLASS_TAG = "CallCapacityBenchmark";
+
+	private static final long ANSWER_DELAY_MS = 8000;
+	private static final int PART_DELAY_MS = 3000;
+	private static final int PARTS = 3;
+
+	private static final DtmfSequencer.Tones NO_TONES = new DtmfSequencer.Tones() {
+		public void send(int digit) {
+		}
+	};
+
+	public static void main(String[] args) throws InterruptedException
+	{
+		String mode = (args.length > 0) ? args[0] : CallThreads.VIRTUAL;
+		int calls = (args.length > 1) ? Integer.parseInt(args[1]) : 10000;
+		final long holdNanos = TimeUnit.SECONDS.toNanos((args.length > 2) ? Integer.parseInt(args[2]) : 30);
+		int sessions = (args.length > 3) ? Integer.parseInt(args[3]) : calls;
+
+		if (CallThreads.VIRTUAL.equals(mode) && !CallThreads.virtualThreadsSupported()) {
+			System.out.printf("%s: Virtual threads need Java 21 (running %s)%n", MY_CLASS_TAG, System.getProperty("java.version"));
+			return;
+		}
+		System.setProperty(GeneratorConfig.PREFIX + "threads", mode);
+		if (GeneratorConfig.getString("logFile", null) == null)
+			System.setProperty(GeneratorConfig.PREFIX + "logFile", MY_CLASS_TAG + "-{run}.txt");
+
+		Logger log = new Logger();
+		log.Init();
+		AccountPool pool = new AccountPool(AccountPool.Policy.ROUND_ROBIN, offlineSessions(sessions));
+		final HashedWheelTimer timer = new HashedWheelTimer(GeneratorConfig.getLong("timerTickMs", 5), TimeUnit.MILLISECONDS,
+				512, GeneratorConfig.getInt("timerThreads", 2));
+		final DtmfSequencer sequencer = new DtmfSequencer(timer, GeneratorConfig.getLong("digitGapMs", 0),
+				new LatencyStats(), EventLog.disabled());
+		final Path path = benchmarkPath();
+		// Calls in progress, so that they can all be hung up at the end
+		final Set<CallHandle> live = ConcurrentHashMap.newKeySet();
+		CallEngine.Caller caller = new CallEngine.Caller() {
+			public void doMakeCall(MySession session, String callTarget, Logger log, long scheduledNanos, long callIndex) {
+				simulateCall(timer, sequencer, path, live, holdNanos, log, callIndex);
+			}
+		};
+		// Every digit would be printed
+		PrintStream console = MySession.myConsole;
+		MySession.myConsole = new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		});
+
+		long baseline = usedHeap();
+		long baselineRss = residentBytes();
+		CallEngine engine = new CallEngine(caller, MY_CLASS_TAG, log, pool, sessions, GeneratorConfig.maxPending(sessions));
+
+		long t0 = System.nanoTime();
+		int handed = 0;
+		int accepted = 0;
+		try {
+			for (; handed < calls; handed++) {
+				if (engine.startCall(System.nanoTime()))
+					accepted++;
+			}
+		} catch (OutOfMemoryError e) {
+			// "unable to create native thread" for platform threads - that is the answer
+			System.out.printf("%s: Out of memory after %d calls: %s%n", MY_CLASS_TAG, handed, e.getMessage());
+		}
+		// Every call handed over either holds a session or waits for one until the hang-up
+		while (engine.getActiveCalls() + engine.getWaitingCalls() < accepted)
+			Thread.sleep(10);
+		long startNanos = System.nanoTime() - t0;
+
+		int active = engine.getActiveCalls();
+		int waiting = engine.getWaitingCalls();
+		long used = usedHeap() - baseline;
+		long maxHeap = Runtime.getRuntime().maxMemory();
+		double bytesPerCall = (accepted == 0) ? 0 : (double)used / accepted;
+		System.out.printf("%s: mode = %s, sessions = %d, calls in progress = %d, waiting = %d, shed = %d, handed over in %d ms%n",
+				MY_CLASS_TAG, mode, sessions, active, waiting, engine.getShedStarts(), TimeUnit.NANOSECONDS.toMillis(startNanos));
+		System.out.printf("%s: heap used by calls = %d KB (%.0f bytes/call), max heap = %d MB%n",
+				MY_CLASS_TAG, used / 1024, bytesPerCall, maxHeap / (1024 * 1024));
+		if (bytesPerCall > 0)
+			System.out.printf("%s: ~%.0f concurrent calls per GB of heap%n",
+					MY_CLASS_TAG, (1024.0 * 1024.0 * 1024.0) / bytesPerCall);
+		long rss = residentBytes();
+		if (rss > 0 && baselineRss > 0 && accepted > 0) {
+			double rssPerCall = (double)(rss - baselineRss) / accepted;
+			System.out.printf("%s: process RSS grew %d KB (%.0f bytes/call, ~%.0f calls per GB incl. stacks)%n",
+					MY_CLASS_TAG, (rss - baselineRss) / 1024, rssPerCall, (1024.0 * 1024.0 * 1024.0) / rssPerCall);
+		}
+		System.out.printf("%s: live threads = %d (platform threads only)%n",
+				MY_CLASS_TAG, Thread.activeCount());
+
+		for (CallHandle handle : live)
+			handle.markEnded();
+		engine.awaitIdle();
+		engine.shutdown();
+		timer.stop();
+		MySession.myConsole = console;
+		log.Close();
+	}
+
+	/**
+	 * Sessions that count as logged in but are connected to nothing; their status messages are
+	 * not printed.
+	 */
+	private static List<MySession> offlineSessions(int count)
+	{
+		List<MySession> sessions = new ArrayList<MySession>(count);
+		PrintStream console = MySession.myConsole;
+		MySession.myConsole = new PrintStream(new OutputStream() {
+			public void write(int b) {
+			}
+		});
+		try {
+			for (int i = 0; i < count; i++) {
+				MySession session = new MySession();
+				session.myTutorialTag = MY_CLASS_TAG + "-" + i;
+				session.setLoginStatus(Account.Status.LOGGED_IN);
+				sessions.add(session);
+			}
+		} finally {
+			MySession.myConsole = console;
+		}
+		return sessions;
+	}
+
+	/**
+	 * The path every call plays: {@link #PARTS} single digits, {@link #PART_DELAY_MS} apart.
+	 */
+	private static Path benchmarkPath()
+	{
+		ListPath path = new ListPath();
+		for (int i = 0; i < PARTS; i++)
+			path.Add(new int[] { i + 1 }, PART_DELAY_MS);
+		return path;
+	}
+
+	/**
+	 * One call as {@link CallGenerator#doMakeCall} runs it: timer tasks stand in for the IVR,
+	 * answering after {@link #ANSWER_DELAY_MS} and hanging up after <code>holdNanos</code>.
+	 */
+	private static void simulateCall(HashedWheelTimer timer, DtmfSequencer sequencer, Path path, Set<CallHandle> live,
+			long holdNanos, Logger log, long callIndex)
+	{
+		final CallHandle handle = new CallHandle(null);
+		live.add(handle);
+		timer.newTimeout(new Runnable() {
+			public void run() {
+				handle.markLive();
+			}
+		}, Math.min(ANSWER_DELAY_MS, TimeUnit.NANOSECONDS.toMillis(holdNanos)), TimeUnit.MILLISECONDS);
+		timer.newTimeout(new Runnable() {
+			public void run() {
+				handle.markEnded();
+			}
+		}, holdNanos, TimeUnit.NANOSECONDS);
+		try {
+			if (!handle.awaitLive(CallGenerator.RING_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+				return;
+			DtmfSequencer.Sequence sequence = sequencer.play(NO_TONES, path, log, callIndex);
+			try {
+				handle.awaitEnd();
+			} finally {
+				sequence.cancel();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} finally {
+			live.remove(handle);
+		}
+	}
+
+	/**
+	 * Resident set size of this process from <code>/proc/self/status</code>, or -1 where that is not available.
+	 */
+	private static long residentBytes()
+	{
+		BufferedReader br = null;
+		try {
+			br = new BufferedReader(new FileReader("/proc/self/status"));
+			String line;
+			while ((line = br.readLine()) != null) {
+				if (line.startsWith("VmRSS:"))
+					return Long.parseLong(line.replaceAll("[^0-9]", "")) * 1024;
+			}
+		} catch (IOException e) {
+			// not Linux
+		} finally {
+			if (br != null) {
+				try {
+					br.close();
+				} catch (IOException e) {
+					// ignore
+				}
+			}
+		}
+		return -1;
+	}
+
+	private static long usedHeap()
+	{
+		Runtime rt = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+			try {
+				Thread.sleep(100);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		return rt.totalMemory() - rt.freeMemory();
+	}
+}
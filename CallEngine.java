@@ -0,0 +1,441 @@
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import util.AccountPool;
+import util.MySession;
+
+/**
+ * Runs calls on several independent sessions at the same time.
+ * <br /><br />
+ * Every session has its own <code>Skype</code>, <code>ClientConfiguration</code> and
+ * <code>Listeners</code> (see {@link MySession#doCreateSession(String, String, String, int)}),
+ * and carries at most one call at a time. Calls take idle sessions from an {@link AccountPool}
+ * and the engine keeps a target number of calls in flight, so one generator process can drive
+ * as many simultaneous calls as it has logged-in accounts.
+ * <br /><br />
+ * Sessions, not threads, bound the number of calls in progress: the thread mode (see
+ * {@link CallThreads}) only decides what a call waiting for a session or for the IVR costs.
+ * Open-loop starts that would wait for a session behind <code>callgen.maxPending</code> others
+ * are shed and counted rather than queued without limit, see {@link #startCall(long)}.
+ */
+public class CallEngine {
+
+	public static final String MY_CLASS_TAG = "CallEngine";
+
+	/**
+	 * Runs one call on a session; {@link CallGenerator} places real calls.
+	 */
+	public interface Caller {
+		void doMakeCall(MySession session, String callTarget, Logger log, long scheduledNanos, long callIndex);
+	}
+
+	// Intended start time of calls placed by runCalls(int), which have no schedule to keep
+	static final long UNSCHEDULED = Long.MIN_VALUE;
+
+	// How often profile-driven runs re-read the profile, and log their progress
+	static final long CONTROL_INTERVAL_MS = 100;
+	static final long PROGRESS_INTERVAL_MS = 10000;
+
+	private final Caller mCaller;
+	private final String mCallTarget;
+	private final Logger mLog;
+
+	private final AccountPool mPool;
+	private final int mPoolSize;
+	// Closed-loop slots: at most mSlotLimit calls in flight, adjustable while running
+	private final Object mSlotLock = new Object();
+	private int mSlotLimit;
+	private int mSlotsUsed = 0;
+	private final ExecutorService mExecutor;
+
+	// Index of the next call handed to the engine; picks the call's random stream, see RandomStreams
+	private final AtomicLong mNextCallIndex = new AtomicLong();
+	private final AtomicInteger mStarted = new AtomicInteger();
+	private final AtomicInteger mCompleted = new AtomicInteger();
+	private final AtomicInteger mActive = new AtomicInteger();
+	private final AtomicInteger mMaxActive = new AtomicInteger();
+
+	// Calls handed to the engine that have not finished yet (queued or running)
+	private final Object mOutstandingLock = new Object();
+	private int mOutstanding = 0;
+	// Open-loop calls handed to the engine that have no session yet, and how many may wait
+	private final AtomicInteger mWaiting = new AtomicInteger();
+	private final int mMaxWaiting;
+	private final AtomicInteger mShedStarts = new AtomicInteger();
+	// Set by stop(): no more calls are started
+	private volatile boolean mStopped = false;
+
+	// Open-loop schedule adherence, see startCall(long)
+	private long mLateThresholdNanos = TimeUnit.MILLISECONDS.toNanos(50);
+	private final AtomicInteger mLateStarts = new AtomicInteger();
+	private final AtomicLong mMaxLateNanos = new AtomicLong();
+	private final AtomicLong mTotalLateNanos = new AtomicLong();
+
+	/**
+	 * @param maxWaiting
+	 *  Most open-loop calls that may wait for a session (<code>callgen.maxPending</code>,
+	 *  default the number of sessions); at least 1.
+	 */
+	public CallEngine(Caller caller, String callTarget, Logger log,
+			AccountPool pool, int targetInFlight, int maxWaiting)
+	{
+		if (pool.size() == 0)
+			throw new IllegalArgumentException(MY_CLASS_TAG + ": no sessions to call on");
+
+		mCaller = caller;
+		mCallTarget = callTarget;
+		mLog = log;
+		mPool = pool;
+		mPoolSize = pool.size();
+		mSlotLimit = Math.max(1, Math.min(targetInFlight, mPoolSize));
+		mMaxWaiting = Math.max(1, maxWaiting);
+		// One thread per session: closed-loop runs are further limited by the slots,
+		// open-loop runs may use every session. Virtual threads are created per call.
+		mExecutor = CallThreads.newCallExecutor(CallThreads.configuredMode(), mPoolSize);
+	}
+
+	/**
+	 * Places <code>numberOfCalls</code> calls, starting a new one as soon as one of the
+	 * {@link #getTargetInFlight()} in-flight calls finishes, and returns when all of them are done.
+	 */
+	public void runCalls(int numberOfCalls) throws InterruptedException
+	{
+		MySession.myConsole.printf("%s: %d calls on %d sessions, %d in flight%n",
+				MY_CLASS_TAG, numberOfCalls, mPool.size(), getTargetInFlight());
+		mLog.Write(String.format("Engine start: calls = %d, sessions = %d, in flight = %d",
+				numberOfCalls, mPool.size(), getTargetInFlight()));
+
+		for (int i = 0; i < numberOfCalls && !mStopped; i++) {
+			acquireSlot(Long.MAX_VALUE);
+			if (mStopped) {
+				releaseSlot();
+				break;
+			}
+			startSlotCall();
+		}
+		awaitSlots();
+
+		mLog.Write(String.format("Engine done: started = %d, completed = %d, max active = %d",
+				mStarted.get(), mCompleted.get(), mMaxActive.get()));
+	}
+
+	/**
+	 * Closed-loop run following a {@link LoadProfile.Mode#CONCURRENCY} profile: the number of calls
+	 * in flight tracks the profile's value until the profile ends. Sessions stay logged in
+	 * throughout; only the number of them in a call changes.
+	 */
+	public void runProfile(LoadProfile profile) throws InterruptedException
+	{
+		MySession.myConsole.printf("%s: Following load profile %s for %d s on %d sessions%n",
+				MY_CLASS_TAG, profile, profile.getDurationMillis() / 1000, mPool.size());
+		mLog.Write(String.format("Engine profile start: %s, duration = %d s, sessions = %d",
+				profile, profile.getDurationMillis() / 1000, mPool.size()));
+
+		long start = System.nanoTime();
+		long nextReport = 0;
+		long elapsed;
+		while ((elapsed = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start)) < profile.getDurationMillis() && !mStopped) {
+			setTargetInFlight((int)Math.round(profile.valueAt(elapsed)));
+			if (elapsed >= nextReport) {
+				reportProgress(elapsed, getTargetInFlight());
+				nextReport += PROGRESS_INTERVAL_MS;
+			}
+			if (acquireSlot(TimeUnit.MILLISECONDS.toNanos(CONTROL_INTERVAL_MS))) {
+				if (mStopped)
+					releaseSlot();
+				else
+					startSlotCall();
+			}
+		}
+		awaitSlots();
+
+		mLog.Write(String.format("Engine profile done: started = %d, completed = %d, max active = %d",
+				mStarted.get(), mCompleted.get(), mMaxActive.get()));
+	}
+
+	/**
+	 * Writes one progress line for a profile-driven run.
+	 */
+	void reportProgress(long elapsedMillis, double target)
+	{
+		String line = String.format("Profile t = %d s: target = %.2f, active = %d, started = %d, completed = %d",
+				elapsedMillis / 1000, target, mActive.get(), mStarted.get(), mCompleted.get());
+		MySession.myConsole.printf("%s: %s%n", MY_CLASS_TAG, line);
+		mLog.Write(line);
+	}
+
+	private void startSlotCall()
+	{
+		final long callIndex = mNextCallIndex.getAndIncrement();
+		mExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					placeCall(UNSCHEDULED, callIndex, false);
+				} finally {
+					releaseSlot();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Takes a closed-loop slot, waiting up to <code>timeoutNanos</code> for one to be free.
+	 */
+	private boolean acquireSlot(long timeoutNanos) throws InterruptedException
+	{
+		synchronized (mSlotLock) {
+			long deadline = System.nanoTime() + Math.min(timeoutNanos, Long.MAX_VALUE / 2);
+			long wait;
+			while (mSlotsUsed >= mSlotLimit) {
+				if ((wait = deadline - System.nanoTime()) <= 0)
+					return false;
+				TimeUnit.NANOSECONDS.timedWait(mSlotLock, wait);
+			}
+			mSlotsUsed++;
+			return true;
+		}
+	}
+
+	private void releaseSlot()
+	{
+		synchronized (mSlotLock) {
+			mSlotsUsed--;
+			mSlotLock.notifyAll();
+		}
+	}
+
+	private void awaitSlots() throws InterruptedException
+	{
+		synchronized (mSlotLock) {
+			while (mSlotsUsed > 0)
+				mSlotLock.wait();
+		}
+	}
+
+	/**
+	 * Changes the number of calls kept in flight by closed-loop runs, between 0 and the number of
+	 * sessions. Lowering it lets running calls finish; it never cuts them short.
+	 */
+	public void setTargetInFlight(int target)
+	{
+		synchronized (mSlotLock) {
+			int limit = Math.max(0, Math.min(target, mPoolSize));
+			if (limit != mSlotLimit) {
+				mSlotLimit = limit;
+				mSlotLock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Hands one call to the engine without waiting for earlier calls to finish (open loop).
+	 * <br /><br />
+	 * The call starts as soon as the pool has a free session. If that is more than the late threshold
+	 * after <code>intendedStartNanos</code> (a {@link System#nanoTime()} value), the start is
+	 * counted as late; see {@link #getLateStarts()}. If as many calls as the engine lets wait are
+	 * already waiting for a session, the call is not placed at all and is counted as shed; see
+	 * {@link #getShedStarts()}.
+	 *
+	 * @return false if the call was shed, or the engine has been {@link #stop() stopped}.
+	 */
+	public boolean startCall(final long intendedStartNanos)
+	{
+		if (mStopped)
+			return false;
+		if (mWaiting.incrementAndGet() > mMaxWaiting) {
+			mWaiting.decrementAndGet();
+			mShedStarts.incrementAndGet();
+			return false;
+		}
+		synchronized (mOutstandingLock) {
+			mOutstanding++;
+		}
+		final long callIndex = mNextCallIndex.getAndIncrement();
+		mExecutor.execute(new Runnable() {
+			public void run() {
+				try {
+					placeCall(intendedStartNanos, callIndex, true);
+				} finally {
+					synchronized (mOutstandingLock) {
+						if (--mOutstanding == 0)
+							mOutstandingLock.notifyAll();
+					}
+				}
+			}
+		});
+		return true;
+	}
+
+	/**
+	 * Waits until every call handed to {@link #startCall(long)} has finished.
+	 */
+	public void awaitIdle() throws InterruptedException
+	{
+		synchronized (mOutstandingLock) {
+			while (mOutstanding > 0)
+				mOutstandingLock.wait();
+		}
+	}
+
+	/**
+	 * Runs one call on an idle session. Calls are numbered in the order they are handed to the
+	 * engine, not the order they start, so a seeded run numbers them the same way every time.
+	 */
+	private void placeCall(long intendedStartNanos, long callIndex, boolean openLoop)
+	{
+		MySession session;
+		try {
+			session = mPool.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return;
+		} finally {
+			if (openLoop)
+				mWaiting.decrementAndGet();
+		}
+		if (session == null) {
+			// Every account has been taken out of rotation
+			mLog.Write("Call not placed: no accounts left in the pool");
+			return;
+		}
+		if (intendedStartNanos != UNSCHEDULED)
+			recordLateness(System.nanoTime() - intendedStartNanos);
+		int active = mActive.incrementAndGet();
+		updateMaxActive(active);
+		mStarted.incrementAndGet();
+		try {
+			mCaller.doMakeCall(session, mCallTarget, mLog, intendedStartNanos, callIndex);
+			mCompleted.incrementAndGet();
+		} catch (RuntimeException e) {
+			MySession.myConsole.printf("%s: call on %s failed: %s%n", MY_CLASS_TAG, session.myTutorialTag, e);
+			mLog.Write(String.format("Call failed on %s: %s", session.myTutorialTag, e));
+		} finally {
+			mActive.decrementAndGet();
+			mPool.release(session);
+		}
+	}
+
+	private void recordLateness(long lateNanos)
+	{
+		if (lateNanos <= mLateThresholdNanos)
+			return;
+		mLateStarts.incrementAndGet();
+		mTotalLateNanos.addAndGet(lateNanos);
+		long max;
+		while (lateNanos > (max = mMaxLateNanos.get())) {
+			if (mMaxLateNanos.compareAndSet(max, lateNanos))
+				break;
+		}
+	}
+
+	private void updateMaxActive(int active)
+	{
+		int max;
+		while (active > (max = mMaxActive.get())) {
+			if (mMaxActive.compareAndSet(max, active))
+				break;
+		}
+	}
+
+	/**
+	 * Ends the run early: no more calls are started, and the run methods return once the calls
+	 * in flight have finished. Safe to call from a call thread.
+	 */
+	public void stop()
+	{
+		mStopped = true;
+		synchronized (mSlotLock) {
+			mSlotLock.notifyAll();
+		}
+	}
+
+	public boolean isStopped()
+	{
+		return mStopped;
+	}
+
+	/**
+	 * Stops the call threads; calls still running are interrupted.
+	 */
+	public void shutdown()
+	{
+		mExecutor.shutdown();
+		try {
+			if (!mExecutor.awaitTermination(10, TimeUnit.SECONDS))
+				mExecutor.shutdownNow();
+		} catch (InterruptedException e) {
+			mExecutor.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	public int getTargetInFlight()
+	{
+		synchronized (mSlotLock) {
+			return mSlotLimit;
+		}
+	}
+
+	public int getActiveCalls()
+	{
+		return mActive.get();
+	}
+
+	public int getCompletedCalls()
+	{
+		return mCompleted.get();
+	}
+
+	public int getStartedCalls()
+	{
+		return mStarted.get();
+	}
+
+	public void setLateThresholdMillis(long millis)
+	{
+		mLateThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+
+	/**
+	 * Number of open-loop calls that started later than the late threshold after their scheduled time.
+	 */
+	public int getLateStarts()
+	{
+		return mLateStarts.get();
+	}
+
+	/**
+	 * Number of open-loop calls not placed because too many calls were already waiting for a session.
+	 */
+	public int getShedStarts()
+	{
+		return mShedStarts.get();
+	}
+
+	/**
+	 * Number of open-loop calls waiting for a session right now.
+	 */
+	public int getWaitingCalls()
+	{
+		return mWaiting.get();
+	}
+
+	public long getMaxLateMillis()
+	{
+		return TimeUnit.NANOSECONDS.toMillis(mMaxLateNanos.get());
+	}
+
+	public long getMeanLateMillis()
+	{
+		int late = mLateStarts.get();
+		return (late == 0) ? 0 : TimeUnit.NANOSECONDS.toMillis(mTotalLateNanos.get() / late);
+	}
+
+	public List<MySession> getSessions()
+	{
+		return mPool.getActiveSessions();
+	}
+}
@@ -1,5 +1,9 @@
 
+import java.io.IOException;
 import java.math.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 import com.skype.api.Conversation;
 import com.skype.api.Participant;
@@ -7,6 +11,9 @@ import com.skype.api.Participant.Dtmf;
 import com.sun.tools.javac.util.Convert;
 
 import appkeypair.AppKeyPairMgr;
+import util.AccountPool;
+import util.CallHandle;
+import util.HashedWheelTimer;
 import util.MySession;
 import util.SignInMgr;
 
@@ -29,7 +36,7 @@ import util.SignInMgr;
  * 
  * @since 1.0
  */
-public class CallGenerator { 
+public class CallGenerator implements CallEngine.Caller { 
     /**
 	 * Info/Debug console output message prefix/identifier tag.
 	 * Corresponds to class name.
@@ -82,6 +89,18 @@ public class CallGenerator {
     public static final int APP_KEY_PAIR_IDX = ((REQ_ARG_CNT + OPT_ARG_CNT) - 2);
     
     public static final int NUMBER_OF_CALLS_IDX = ((REQ_ARG_CNT + OPT_ARG_CNT) - 1);
+
+    /**
+	 * How long to wait for the call target to answer (<code>callgen.ringTimeoutMs</code>)
+	 * before hanging up.
+	 */
+    public static final long RING_TIMEOUT_MS = GeneratorConfig.getLong("ringTimeoutMs", 30000);
+
+    /**
+	 * Pause between the call being answered and the first DTMF digit
+	 * (<code>callgen.answerOffsetMs</code>), giving the IVR time to start its greeting.
+	 */
+    public static final long ANSWER_OFFSET_MS = GeneratorConfig.getLong("answerOffsetMs", 1000);
     
     
 
@@ -93,7 +112,11 @@ public class CallGenerator {
     private static String myCallTarget;
 
     private static AppKeyPairMgr myAppKeyPairMgr = new AppKeyPairMgr();
-    private static MySession mySession = new MySession();
+
+    /**
+     * Every session created for this run, logged in or not; see {@link AccountPool}.
+     */
+    private static List<MySession> mySessions = new ArrayList<MySession>();
 
     /**
      * "Extraneous" instance of this tutorial so we can invoke our business logic
@@ -104,6 +127,36 @@ public class CallGenerator {
     private static CallGenerator myCallGenerator = new CallGenerator();
     private static IVRPaths mPaths = new IVRPaths();
 
+    /**
+     * Timer shared by all calls for DTMF timing, and the sequencer that plays paths on it.
+     * Tick length, dispatch threads and inter-digit gap come from <code>callgen.timerTickMs</code>,
+     * <code>callgen.timerThreads</code> and <code>callgen.digitGapMs</code>.
+     */
+    private static HashedWheelTimer myDtmfTimer;
+    private static DtmfSequencer myDtmfSequencer;
+
+    /**
+     * Latency histograms of the run, recorded by every call; see {@link LatencyStats}.
+     */
+    private static LatencyStats myLatencyStats;
+
+    /**
+     * Binary record of what every call did (<code>callgen.eventLog</code>); see {@link EventLog}.
+     */
+    private static EventLog myEventLog = EventLog.disabled();
+
+    /**
+     * Source of every random choice of the run, seeded from <code>callgen.seed</code>;
+     * see {@link RandomStreams}.
+     */
+    private static RandomStreams myRandomStreams;
+
+    /**
+     * The engine placing the calls; a call stops it when the run cannot go on, see
+     * {@link CallEngine#stop()}.
+     */
+    private static CallEngine myEngine;
+
 	/**
 	 * Main loop
 	 * 
@@ -113,7 +166,25 @@ public class CallGenerator {
 	 *   <li>Password for the target Skype account.</li>
 	 *   <li>Skype Name of the person to call.</li>
      *   <li>Optional pathname of an AppKeyPair PEM file.</li>
+     *   <li>Optional number of calls to place.</li>
 	 * </ol>
+	 * Concurrency is set through system properties, see {@link GeneratorConfig}:
+	 * <code>-Dcallgen.sessions=N</code> runs N sessions against the SkypeKit runtimes on
+	 * ports <code>callgen.basePort</code> .. <code>callgen.basePort + N - 1</code>, and
+	 * <code>-Dcallgen.inFlight=M</code> keeps M of them in a call at any time.
+	 * <code>-Dcallgen.rate=R</code> switches to open loop: calls start at R calls/s
+	 * (<code>callgen.arrival</code> = constant, poisson or uniform) whether or not earlier calls
+	 * have finished, see {@link ArrivalScheduler}.
+	 * <code>-Dcallgen.threads=virtual</code> runs every call on its own virtual thread, see {@link CallThreads}.
+	 * Open-loop starts that find <code>callgen.maxPending</code> calls already waiting for a session
+	 * are shed and counted, see {@link CallEngine#startCall(long)}.
+	 * <code>-Dcallgen.profile=...</code> replaces the number of calls with a load profile (ramp, step,
+	 * spike, sine, soak) that sets the rate or, with <code>callgen.profileMode=concurrency</code>,
+	 * the calls in flight over time, see {@link LoadProfile}.
+	 * <code>-Dcallgen.accounts=file</code> calls from the accounts listed in a credentials file
+	 * instead (the command-line account and password are then ignored), see {@link AccountPool};
+	 * <code>callgen.loginParallelism</code> accounts log in at a time, and
+	 * <code>callgen.accountPolicy</code> (round_robin or least_loaded) picks the account for each call.
 	 * 
 	 * @since 1.0
 	 */
@@ -145,36 +216,60 @@ public class CallGenerator {
 			}
 		}
 
-		MySession.myConsole.printf("%s: main - Creating session - Account = %s%n",
-							MY_CLASS_TAG, args[ACCOUNT_NAME_IDX]);
-		mySession.doCreateSession(MY_CLASS_TAG, args[ACCOUNT_NAME_IDX], myAppKeyPairMgr.getPemFilePathname());
+		int basePort = GeneratorConfig.basePort();
+		List<AccountPool.Credentials> accounts;
+		if (GeneratorConfig.accountsFile() != null) {
+			try {
+				accounts = AccountPool.readCredentials(GeneratorConfig.accountsFile(), basePort);
+			}
+			catch (IOException e) {
+				MySession.myConsole.printf("%s: Cannot read accounts: %s%n", MY_CLASS_TAG, e.getMessage());
+				return;
+			}
+		}
+		else {
+			accounts = new ArrayList<AccountPool.Credentials>();
+			for (int s = 0; s < GeneratorConfig.sessions(); s++) {
+				accounts.add(new AccountPool.Credentials(args[ACCOUNT_NAME_IDX], args[ACCOUNT_PWORD_IDX], (basePort + s)));
+			}
+		}
+
+		AccountPool pool = new AccountPool(GeneratorConfig.accountPolicy());
+		try {
+			pool.loginAll(accounts, MY_CLASS_TAG, myAppKeyPairMgr.getPemFilePathname(), GeneratorConfig.loginParallelism());
+		}
+		catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		mySessions.addAll(pool.getAllSessions());
+		// SkypeKitListeners, SignInMgr, and MySession will have logged/written
+		// all appropriate diagnostics if login is not successful
 
-		MySession.myConsole.printf("%s: main - Logging in w/ password %s%n",
-				MY_CLASS_TAG, args[ACCOUNT_PWORD_IDX]);
-		if (mySession.mySignInMgr.Login(MY_CLASS_TAG, mySession, args[ACCOUNT_PWORD_IDX])) {
-			if (args.length == (REQ_ARG_CNT + OPT_ARG_CNT)) {
+		if (pool.size() > 0) {
+			LoadProfile profile = LoadProfile.fromConfig();
+			if (profile != null) {
+				MySession.myConsole.printf("%s: main - load profile = %s%n", MY_CLASS_TAG, profile);
+				runLoad(pool, 0, profile);
+			}
+			else if (args.length == (REQ_ARG_CNT + OPT_ARG_CNT)) {
 				int numberOfCalls = Integer.parseInt(args[NUMBER_OF_CALLS_IDX]);
 				MySession.myConsole.printf("%s: main - number of calls =  %d%n",
 						MY_CLASS_TAG, numberOfCalls);
-				
-				Logger log = new Logger();
-				log.Init();
-				
-				for (int i=0; i < numberOfCalls; i++){
-					mPaths.InitFromFile(log, "input.txt");
-					myCallGenerator.doMakeCall(mySession, myCallTarget, log);
-				}
-				log.Close();
-			
+				runLoad(pool, numberOfCalls, null);
+			}
+			try {
+				pool.logoutAll(GeneratorConfig.loginParallelism());
+			}
+			catch (InterruptedException e) {
+				e.printStackTrace();
 			}
-			mySession.mySignInMgr.Logout(MY_CLASS_TAG, mySession);
 		}
-		// SkypeKitListeners, SignInMgr, and MySession will have logged/written
-		// all appropriate diagnostics if login is not successful
 
 		MySession.myConsole.printf("%s: Cleaning up...%n", MY_CLASS_TAG);
-		if (mySession != null) {
-			mySession.doTearDownSession();
+		for (MySession session : mySessions) {
+			if (session.mySkype != null) {
+				session.doTearDownSession();
+			}
 		}
 		MySession.myConsole.printf("%s: Done!%n", MY_CLASS_TAG);
 	}
@@ -183,6 +278,116 @@ public class CallGenerator {
 	
 
 
+	/**
+	 * Sets up the log, path catalog and DTMF timer, then places calls on the pool's accounts:
+	 * following <code>profile</code> if there is one, otherwise <code>numberOfCalls</code> calls,
+	 * open loop if <code>callgen.rate</code> is set and closed loop if not.
+	 */
+	private static void runLoad(AccountPool pool, int numberOfCalls, LoadProfile profile) {
+
+		Logger log = new Logger();
+		log.Init();
+		GeneratorConfig.dump(log);
+		myRandomStreams = RandomStreams.fromConfig();
+		log.Write(String.format("Random seed = %d", myRandomStreams.getSeed()));
+		MySession.myConsole.printf("%s: Random seed = %d (repeat with -D%sseed=%d)%n", MY_CLASS_TAG,
+				myRandomStreams.getSeed(), GeneratorConfig.PREFIX, myRandomStreams.getSeed());
+		DataFeeds feeds;
+		try {
+			feeds = DataFeeds.fromConfig();
+		} catch (IOException e) {
+			System.err.println("Error: " + e.getMessage());
+			feeds = new DataFeeds(new ArrayList<DataFeed>());
+		}
+		mPaths.setFeeds(feeds);
+		try {
+			myEventLog = EventLog.fromConfig();
+		} catch (IOException e) {
+			System.err.println("Error: event log: " + e.getMessage());
+		}
+		mPaths.setEventLog(myEventLog);
+		String menuGraph = GeneratorConfig.getString("menuGraph", null);
+		try {
+			if (menuGraph != null) {
+				mPaths.InitFromGraph(log, menuGraph);
+			}
+			else {
+				mPaths.InitFromFile(log, GeneratorConfig.getString("pathFile", "input.txt"));
+			}
+		}
+		catch (IllegalArgumentException e) {
+			// Every call would fail without paths: stop before placing any
+			MySession.myConsole.printf("%s: Error: %s - no calls placed%n", MY_CLASS_TAG, e.getMessage());
+			log.Write("Run aborted: " + e.getMessage());
+			feeds.close();
+			myEventLog.close();
+			log.Close();
+			return;
+		}
+		myDtmfTimer = new HashedWheelTimer(GeneratorConfig.getLong("timerTickMs", 5), TimeUnit.MILLISECONDS,
+				512, GeneratorConfig.getInt("timerThreads", 2));
+		myLatencyStats = new LatencyStats();
+		myDtmfSequencer = new DtmfSequencer(myDtmfTimer, GeneratorConfig.getLong("digitGapMs", 0), myLatencyStats, myEventLog);
+		
+		CallEngine engine = new CallEngine(myCallGenerator, myCallTarget, log,
+				pool, GeneratorConfig.inFlight(), GeneratorConfig.maxPending(pool.size()));
+		myEngine = engine;
+		engine.setLateThresholdMillis(GeneratorConfig.getLong("lateMs", 50));
+		try {
+			if (profile != null) {
+				if (profile.getMode() == LoadProfile.Mode.RATE) {
+					new ArrivalScheduler(ArrivalScheduler.configuredPattern(), 1,
+							ArrivalScheduler.configuredJitter(), myRandomStreams.forArrivals()).run(engine, profile, log);
+				}
+				else {
+					engine.runProfile(profile);
+				}
+			}
+			else {
+				ArrivalScheduler scheduler = ArrivalScheduler.fromConfig(myRandomStreams.forArrivals());
+				if (scheduler != null) {
+					scheduler.run(engine, numberOfCalls, log);
+				}
+				else {
+					engine.runCalls(numberOfCalls);
+				}
+			}
+		} catch (InterruptedException e) {
+			e.printStackTrace();
+		}
+		engine.shutdown();
+		log.Write("DTMF " + myDtmfTimer.getDriftReport());
+		MySession.myConsole.printf("%s: DTMF %s%n", MY_CLASS_TAG, myDtmfTimer.getDriftReport());
+		myDtmfTimer.stop();
+		myLatencyStats.report(log);
+		mPaths.stopWatching();
+		for (DataFeed feed : feeds.getFeeds()) {
+			log.Write("Feed " + feed);
+			MySession.myConsole.printf("%s: Feed %s%n", MY_CLASS_TAG, feed);
+		}
+		feeds.close();
+		myEventLog.close();
+		if (myEventLog.getDroppedCount() > 0)
+			log.Write(String.format("Event log: %d events dropped, buffer full", myEventLog.getDroppedCount()));
+		if (mPaths.getSelector() instanceof CoverageScheduler) {
+			log.Write(mPaths.getSelector().toString());
+			MySession.myConsole.printf("%s: %s%n", MY_CLASS_TAG, mPaths.getSelector());
+		}
+		for (LatencyHistogram histogram : myLatencyStats.getHistograms()) {
+			MySession.myConsole.printf("%s: %s%n", MY_CLASS_TAG, histogram);
+		}
+		String latencyFile = GeneratorConfig.getString("latencyFile", null);
+		if (latencyFile != null) {
+			try {
+				myLatencyStats.export(latencyFile);
+			}
+			catch (IOException e) {
+				MySession.myConsole.printf("%s: Cannot write %s: %s%n", MY_CLASS_TAG, latencyFile, e.getMessage());
+			}
+		}
+		log.Close();
+	}
+
 	/**
 	 * Call someone in your Contacts.
 	 * <ol>
@@ -199,10 +404,15 @@ public class CallGenerator {
 	 *	Populated session object
 	 * @param myCallTarget
 	 * 	The Skype Name of the person to call.
+	 * @param scheduledNanos
+	 * 	<code>System.nanoTime()</code> at which an open-loop schedule wanted the call to start,
+	 * 	or <code>CallEngine.UNSCHEDULED</code>; latencies are measured from it, see {@link LatencyStats}.
+	 * @param callIndex
+	 * 	Number of the call in the run; selects the call's random stream, see {@link RandomStreams}.
 	 *  
 	 * @since 1.0
 	 */
-	void doMakeCall(MySession mySession, String myCallTarget, Logger log) {
+	public void doMakeCall(MySession mySession, String myCallTarget, Logger log, long scheduledNanos, long callIndex) {
 
 		// Get available playback/recording devices; choose first of each
 		if (mySession.setupAudioDevices(0,0)) {
@@ -235,92 +445,114 @@ public class CallGenerator {
 		}
 
 		MySession.myConsole.printf("Calling %s%n", myCallTarget);	// Initiate the call
-		mySession.callActive = true;
+		CallHandle callHandle = mySession.beginCall(myConversation);
 		
 		
 			
 		
 		convParticipantList[i].ring(myCallTarget, false, 0, 10, false,
 									mySession.myAccount.getSkypeName());
+		myEventLog.recordAtNanoTime(EventLog.TYPE_CALL_START, 0, mySession.myPortNum, callHandle.getStartNanos(), callIndex,
+				(scheduledNanos == CallEngine.UNSCHEDULED) ? 0 : Math.max(0, callHandle.getStartNanos() - scheduledNanos));
+		myEventLog.recordAtNanoTime(EventLog.TYPE_LIVE_STATUS, EventLog.STATUS_RINGING, 0, callHandle.getStartNanos(), callIndex, 0);
+		int outcome = EventLog.OUTCOME_COMPLETED;
+		int digitsSent = 0;
+		DtmfSequencer.Sequence sequence = null;
 		
-		// Loop until the call finishes
-		if (mySession.callActive) {
+		// Play the path, then wait for the event handlers to report the end of the call
+		if (!callHandle.isEnded()) {
 			try {
-				
-			   
-				Thread.sleep(8000);
-				Path path = mPaths.GetRandomPath();
-				PartialPath pp = null;
-				for (i=0; i < path.size(); i++)
-				{
-					pp = path.GetPart(i);
-					if (pp.getDelay() > 0)
-						Thread.sleep(pp.getDelay());
-					
-					int[] digits = pp.getDigits();
-					for (int d=0; d < digits.length; d++)
-					{ 
-						myConversation.sendDtmf(Participant.Dtmf.get(digits[d]), 500);
-						MySession.myConsole.printf("Send DTMF   = %d%n", digits[d]);
-						
+				// Start the DTMF sequence once the IVR has answered, not after a fixed delay
+				if (!callHandle.awaitLive(RING_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+					if (callHandle.isEnded()) {
+						MySession.myConsole.printf("%s: Call to %s ended before it was answered%n",
+								mySession.myTutorialTag, myCallTarget);
+						if (!myEventLog.isEnabled())
+							log.Write("Call ended before it was answered");
+						outcome = EventLog.OUTCOME_NOT_ANSWERED;
+					}
+					else {
+						MySession.myConsole.printf("%s: No answer from %s within %d ms - hanging up%n",
+								mySession.myTutorialTag, myCallTarget, RING_TIMEOUT_MS);
+						if (!myEventLog.isEnabled())
+							log.Write(String.format("No answer within %d ms", RING_TIMEOUT_MS));
+						myConversation.leaveLiveSession(false);
+						callHandle.awaitEnd(RING_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+						outcome = EventLog.OUTCOME_NO_ANSWER_TIMEOUT;
 					}
-					
+					recordEnd(callHandle, callIndex, outcome, 0);
+					return;
 				}
-				
+				myEventLog.recordAtNanoTime(EventLog.TYPE_LIVE_STATUS, EventLog.STATUS_LIVE, 0, callHandle.getLiveNanos(), callIndex, 0);
+				if (!myEventLog.isEnabled())
+					log.Write(String.format("Answered after %d ms",
+							TimeUnit.NANOSECONDS.toMillis(callHandle.getRingToLiveNanos())));
+				long intendedStart = (scheduledNanos == CallEngine.UNSCHEDULED) ?
+						callHandle.getStartNanos() : Math.min(scheduledNanos, callHandle.getStartNanos());
+				myLatencyStats.getRingToLive().recordNanos(callHandle.getLiveNanos() - intendedStart);
+				if (ANSWER_OFFSET_MS > 0)
+					Thread.sleep(ANSWER_OFFSET_MS);
+				// The timer sends the digits; this thread only waits for the hang-up
+				if (!myEventLog.isEnabled())
+					log.Write(String.format("Call %d", callIndex));
+				Path path;
+				try {
+					path = mPaths.GetRandomPath(callIndex, myRandomStreams.forCall(callIndex));
+				}
+				catch (IllegalStateException e) {
+					// No values left for the path's variables: later calls would fail the same way
+					MySession.myConsole.printf("%s: %s - hanging up and stopping the run%n",
+							mySession.myTutorialTag, e.getMessage());
+					log.Write("No path, run stopped: " + e.getMessage());
+					myEngine.stop();
+					myConversation.leaveLiveSession(false);
+					callHandle.awaitEnd(RING_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+					recordEnd(callHandle, callIndex, EventLog.OUTCOME_NO_PATH, 0);
+					return;
+				}
+				sequence = myDtmfSequencer.play(myConversation, path, log, callIndex);
+				try {
+					callHandle.awaitEnd();
+				} finally {
+					sequence.cancel();
+				}
+				digitsSent = sequence.getSentCount();
+				if (sequence.getFirstSentNanos() != 0)
+					myLatencyStats.getLiveToFirstDtmf().recordNanos(sequence.getFirstSentNanos() - callHandle.getLiveNanos());
 			}
 			catch (InterruptedException e) {
-				// TODO Auto-generated catch bloc
-				e.printStackTrace();
+				// The engine is shutting down: leave no call up behind the session it gets back
+				if (sequence != null)
+					sequence.cancel();
+				myConversation.leaveLiveSession(false);
+				log.Write(String.format("Call %d interrupted - hung up", callIndex));
+				recordEnd(callHandle, callIndex, EventLog.OUTCOME_INTERRUPTED,
+						(sequence == null) ? 0 : sequence.getSentCount());
+				Thread.currentThread().interrupt();
 				return;
 			}
-			while (mySession.callActive)
-				try {
-					Thread.sleep(1000);
-				} catch (Exception  e) {
-					// TODO Auto-generated catch block
-					e.printStackTrace();
-				}
 		}
+		myLatencyStats.getCallDuration().recordNanos(callHandle.getDurationNanos());
+		if (!myEventLog.isEnabled())
+			log.Write(String.format("Call ended after %d ms",
+					TimeUnit.NANOSECONDS.toMillis(callHandle.getDurationNanos())));
+		recordEnd(callHandle, callIndex, outcome, digitsSent);
 			
 		
 	}
 
-
-
-
-
-	private void SendCustomerID(Conversation conversation) {
-		
-		int rand = (int)(Math.random()*100);
-		MySession.myConsole.printf("Randon number for customer ID %s%n", rand);
-		
-		conversation.sendDtmf(Participant.Dtmf.get(2), 500);
-		MySession.myConsole.printf("Send DTMF 1 for customer ID  = 2%n");
-		
-		conversation.sendDtmf(Participant.Dtmf.get(2), 500);
-		MySession.myConsole.printf("Send DTMF 2 for customer ID  = 2%n");
-		
-		conversation.sendDtmf(Participant.Dtmf.get(2), 500);
-		MySession.myConsole.printf("Send DTMF 3 for customer ID  = 2%n");
-		
-		int i = rand/100;
-		conversation.sendDtmf(Participant.Dtmf.get(i), 500);
-		MySession.myConsole.printf("Send DTMF 4 for customer ID  = %d%n", i);
-		
-		rand = rand % 100;
-		i = rand / 10;
-		conversation.sendDtmf(Participant.Dtmf.get(i), 500);
-		MySession.myConsole.printf("Send DTMF 4 for customer ID  = %d%n", i);
-		
-		i = rand % 10;
-		conversation.sendDtmf(Participant.Dtmf.get(i), 500);
-		MySession.myConsole.printf("Send DTMF 4 for customer ID  = %d%n", i);
-	
-
-		
+	/**
+	 * Records the end of a call in the event log, stamped when the call ended.
+	 */
+	private static void recordEnd(CallHandle callHandle, long callIndex, int outcome, int digitsSent)
+	{
+		long endNanos = callHandle.getStartNanos() + callHandle.getDurationNanos();
+		myEventLog.recordAtNanoTime(EventLog.TYPE_LIVE_STATUS, EventLog.STATUS_ENDED, 0, endNanos, callIndex, 0);
+		myEventLog.recordAtNanoTime(EventLog.TYPE_CALL_END, outcome, digitsSent, endNanos, callIndex, endNanos - callHandle.getStartNanos());
 	}
 
 
+
 	
 }
 
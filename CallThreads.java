@@ -0,0 +1,93 @@
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import util.MySession;
+
+/**
+ * Threads that simulated calls run on.
+ * <br /><br />
+ * A call spends nearly all of its life blocked (waiting for the IVR to answer, between
+ * DTMF parts, waiting for the hang-up), so with <code>-Dcallgen.threads=virtual</code> every
+ * call gets its own virtual thread and thousands of concurrent calls cost little more than
+ * their stacks. Virtual threads need Java 21; on older runtimes the request falls back to
+ * platform threads with a console warning.
+ * <br /><br />
+ * The mode changes what a call costs, not how many calls run: every call still holds one
+ * session of the {@link CallEngine}'s pool, so no more calls are in progress than there are
+ * sessions in either mode, and open-loop calls waiting for a session are bounded by
+ * <code>callgen.maxPending</code> in both.
+ */
+public class CallThreads {
+
+	public static final String MY_CLASS_TAG = "CallThreads";
+
+	public static final String PLATFORM = "platform";
+	public static final String VIRTUAL = "virtual";
+
+	/**
+	 * Thread mode requested through <code>callgen.threads</code>.
+	 */
+	public static String configuredMode()
+	{
+		return GeneratorConfig.getString("threads", PLATFORM).trim().toLowerCase();
+	}
+
+	/**
+	 * Whether this runtime can create virtual threads.
+	 */
+	public static boolean virtualThreadsSupported()
+	{
+		return virtualExecutorFactory() != null;
+	}
+
+	/**
+	 * Executor that runs each submitted call on its own thread.
+	 *
+	 * @param mode
+	 *  {@link #VIRTUAL} for one virtual thread per call, anything else for platform threads.
+	 * @param platformThreads
+	 *  Size of the platform thread pool; ignored for virtual threads.
+	 */
+	public static ExecutorService newCallExecutor(String mode, int platformThreads)
+	{
+		if (VIRTUAL.equals(mode)) {
+			Method factory = virtualExecutorFactory();
+			if (factory != null) {
+				try {
+					return (ExecutorService)factory.invoke(null);
+				} catch (Exception e) {
+					MySession.myConsole.printf("%s: Could not create virtual thread executor: %s%n", MY_CLASS_TAG, e);
+				}
+			}
+			MySession.myConsole.printf("%s: Virtual threads need Java 21 (running %s) - using platform threads%n",
+					MY_CLASS_TAG, System.getProperty("java.version"));
+		}
+		return Executors.newFixedThreadPool(Math.max(1, platformThreads), new CallThreadFactory());
+	}
+
+	private static Method virtualExecutorFactory()
+	{
+		try {
+			return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+		} catch (NoSuchMethodException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Names platform call threads so thread dumps show which thread is which.
+	 */
+	private static class CallThreadFactory implements ThreadFactory {
+		private final AtomicInteger mCount = new AtomicInteger();
+
+		public Thread newThread(Runnable r)
+		{
+			Thread t = new Thread(r, "call-" + mCount.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+}
@@ -0,0 +1,353 @@
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Binary form of a {@link PathCatalog}: the arrays of its {@link PathStore}, its weights and its
+ * alias table, written one after the other so that loading is a single memory map.
+ * <br /><br />
+ * Nothing is parsed or copied at load time; the one pass over the paths hashes their
+ * {@link PathCatalog#getId IDs}, which reads the code arena once, so start-up is far quicker than
+ * parsing the path file, and generator processes on one machine share the file's pages in the
+ * page cache.
+ * <br /><br />
+ * Layout, big-endian: a header of six <code>int</code>s (magic <code>IVRC</code>, version,
+ * flags, number of paths, number of parts, number of codes), then the path starts
+ * (paths + 1 <code>int</code>s), part starts (parts + 1), part delays (parts), weights
+ * (paths <code>double</code>s), alias probabilities (paths <code>double</code>s), aliases
+ * (paths <code>int</code>s), the code arena ((codes + 1) / 2 bytes), the names of the named
+ * variables (a count, then each name as modified UTF-8 with a two-byte length) and the
+ * {@link MenuTrie}: a count of choices, each as its delay, its number of codes and the codes,
+ * then a count of nodes and, in depth-first order, the choice ID, path index and number of
+ * children of every node (three <code>int</code> arrays). The tree is only rebuilt from those
+ * arrays when a subtree or coverage run asks for it, which costs a fraction of building it from
+ * the paths. Version 1 files, which end after the arena, and version 2 files, which end after
+ * the variable names, are still read; their tree is built from the paths.
+ * <br /><br />
+ * Usage: <code>java CatalogFile input.txt paths.ivrc</code>. {@link IVRPaths#InitFromFile}
+ * recognises a compiled catalog by its magic number, so <code>callgen.pathFile</code> may
+ * name either form. The file is written under a temporary name and renamed over the target,
+ * so a generator that has the old catalog mapped keeps reading it undisturbed.
+ */
+public class CatalogFile {
+
+	public static final String MY_CLASS_TAG = "CatalogFile";
+
+	/** "IVRC" */
+	public static final int MAGIC = 0x49565243;
+	public static final int VERSION = 3;
+	private static final int VERSION_WITHOUT_VARIABLES = 1;
+	private static final int VERSION_WITHOUT_TRIE = 2;
+
+	private static final int FLAG_WEIGHTED = 1;
+	private static final int HEADER_BYTES = 6 * 4;
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length != 2) {
+			System.out.printf("Usage is %s pathFile catalogFile%n", MY_CLASS_TAG);
+			return;
+		}
+		long start = System.currentTimeMillis();
+		PathCatalog catalog = PathCatalog.load(args[0]);
+		long parsed = System.currentTimeMillis();
+		write(catalog, args[1]);
+		System.out.printf("%s: %d paths from %s parsed in %d ms, written to %s in %d ms%n", MY_CLASS_TAG,
+				catalog.size(), args[0], (parsed - start), args[1], (System.currentTimeMillis() - parsed));
+	}
+
+	/**
+	 * Writes a catalog in binary form, to a temporary file that then replaces <code>fileName</code>.
+	 */
+	public static void write(PathCatalog catalog, String fileName) throws IOException
+	{
+		File target = new File(fileName);
+		File temp = File.createTempFile(target.getName() + ".", ".tmp", target.getAbsoluteFile().getParentFile());
+		try {
+			write(catalog, temp);
+			Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		} finally {
+			// Still there only if something failed
+			temp.delete();
+		}
+	}
+
+	private static void write(PathCatalog catalog, File file) throws IOException
+	{
+		PathStore store = catalog.getStore();
+		int paths = store.size();
+		int parts = store.getTotalPartCount();
+		int codes = store.getTotalCodeCount();
+		MenuTrie trie = catalog.getTrie();
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(catalog.isWeighted() ? FLAG_WEIGHTED : 0);
+			out.writeInt(paths);
+			out.writeInt(parts);
+			out.writeInt(codes);
+			writeInts(out, store.pathStarts(), paths + 1);
+			writeInts(out, store.partStarts(), parts + 1);
+			writeInts(out, store.delays(), parts);
+			writeDoubles(out, catalog.weights(), paths);
+			AliasTable alias = catalog.alias();
+			if (alias != null) {
+				writeDoubles(out, alias.probabilities(), paths);
+				writeInts(out, alias.aliases(), paths);
+			}
+			ByteBuffer arena = store.codes();
+			for (int i = 0; i < (codes + 1) >> 1; i++)
+				out.writeByte(arena.get(i));
+			String[] variables = store.getVariableNames();
+			out.writeInt(variables.length);
+			for (String name : variables)
+				out.writeUTF(name);
+			writeTrie(out, trie);
+		} finally {
+			out.close();
+		}
+	}
+
+	private static void writeTrie(DataOutputStream out, MenuTrie trie) throws IOException
+	{
+		out.writeInt(trie.getChoiceCount());
+		for (int c = 0; c < trie.getChoiceCount(); c++) {
+			int[] codes = trie.getChoiceCodes(c);
+			out.writeInt(trie.getChoiceDelay(c));
+			out.writeInt(codes.length);
+			for (int code : codes)
+				out.writeInt(code);
+		}
+		int nodes = trie.getNodeCount();
+		MenuTrie.Node[] order = new MenuTrie.Node[nodes];
+		List<MenuTrie.Node> stack = new ArrayList<MenuTrie.Node>();
+		stack.add(trie.getRoot());
+		int n = 0;
+		while (!stack.isEmpty()) {
+			MenuTrie.Node node = stack.remove(stack.size() - 1);
+			order[n++] = node;
+			List<MenuTrie.Node> children = new ArrayList<MenuTrie.Node>(node.getChildren());
+			for (int i = children.size() - 1; i >= 0; i--)
+				stack.add(children.get(i));
+		}
+		out.writeInt(nodes);
+		for (MenuTrie.Node node : order)
+			out.writeInt(node.getChoiceId());
+		for (MenuTrie.Node node : order)
+			out.writeInt(node.getPathIndex());
+		for (MenuTrie.Node node : order)
+			out.writeInt(node.getChildCount());
+	}
+
+	private static void writeInts(DataOutputStream out, IntBuffer buffer, int count) throws IOException
+	{
+		for (int i = 0; i < count; i++)
+			out.writeInt(buffer.get(i));
+	}
+
+	private static void writeDoubles(DataOutputStream out, DoubleBuffer buffer, int count) throws IOException
+	{
+		for (int i = 0; i < count; i++)
+			out.writeDouble(buffer.get(i));
+	}
+
+	/**
+	 * Whether a file starts with the catalog magic number.
+	 */
+	public static boolean isCatalogFile(String fileName) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new FileInputStream(fileName));
+		try {
+			return (in.available() >= 4) && (in.readInt() == MAGIC);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Memory-maps a compiled catalog.
+	 *
+	 * @throws IOException
+	 *  if the file cannot be read, is not a catalog of this version, or is truncated.
+	 */
+	public static PathCatalog map(String fileName) throws IOException
+	{
+		MappedByteBuffer file;
+		RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+		try {
+			long length = raf.length();
+			if (length > Integer.MAX_VALUE)
+				throw new IOException(fileName + ": catalog larger than 2 GB");
+			file = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, length);
+		} finally {
+			// The mapping stays valid after the channel is closed
+			raf.close();
+		}
+
+		if (file.limit() < HEADER_BYTES || file.getInt(0) != MAGIC)
+			throw new IOException(fileName + ": not a compiled path catalog");
+		int version = file.getInt(4);
+		if (version != VERSION && version != VERSION_WITHOUT_TRIE && version != VERSION_WITHOUT_VARIABLES)
+			throw new IOException(fileName + ": catalog version " + version + ", expected " + VERSION);
+		int flags = file.getInt(8);
+		int paths = file.getInt(12);
+		int parts = file.getInt(16);
+		int codes = file.getInt(20);
+
+		long expected = HEADER_BYTES + 4L * (paths + 1) + 4L * (parts + 1) + 4L * parts + 8L * paths
+				+ ((paths > 0) ? 12L * paths : 0) + ((codes + 1) >> 1);
+		String[] variables = new String[0];
+		StoredTrie trie = null;
+		if (paths >= 0 && parts >= 0 && codes >= 0 && version != VERSION_WITHOUT_VARIABLES && file.limit() >= expected + 4) {
+			ByteBuffer tail = slice(file, (int)expected, file.limit() - (int)expected);
+			variables = readVariableNames(tail, fileName);
+			if (version != VERSION_WITHOUT_TRIE)
+				trie = readTrie(tail, fileName);
+			expected += tail.position();
+		}
+		if (paths < 0 || parts < 0 || codes < 0 || file.limit() != expected)
+			throw new IOException(String.format("%s: %d bytes, expected %d", fileName, file.limit(), expected));
+
+		int offset = HEADER_BYTES;
+		IntBuffer pathStart = slice(file, offset, 4 * (paths + 1)).asIntBuffer();
+		offset += 4 * (paths + 1);
+		IntBuffer partStart = slice(file, offset, 4 * (parts + 1)).asIntBuffer();
+		offset += 4 * (parts + 1);
+		IntBuffer delays = slice(file, offset, 4 * parts).asIntBuffer();
+		offset += 4 * parts;
+		DoubleBuffer weights = slice(file, offset, 8 * paths).asDoubleBuffer();
+		offset += 8 * paths;
+		AliasTable alias = null;
+		if (paths > 0) {
+			DoubleBuffer prob = slice(file, offset, 8 * paths).asDoubleBuffer();
+			offset += 8 * paths;
+			IntBuffer aliases = slice(file, offset, 4 * paths).asIntBuffer();
+			offset += 4 * paths;
+			alias = new AliasTable(prob, aliases);
+		}
+		ByteBuffer arena = slice(file, offset, (codes + 1) >> 1);
+
+		PathStore store = new PathStore(arena, partStart, delays, pathStart, variables);
+		return new PathCatalog(fileName, store, weights, (flags & FLAG_WEIGHTED) != 0, alias, trie);
+	}
+
+	/**
+	 * A {@link MenuTrie} as stored in a catalog file, rebuilt on demand.
+	 */
+	static final class StoredTrie {
+		private final String m_fileName;
+		private final int[][] m_choiceCodes;
+		private final int[] m_choiceDelays;
+		private final IntBuffer m_nodeChoices;
+		private final IntBuffer m_nodePaths;
+		private final IntBuffer m_nodeChildren;
+
+		StoredTrie(String fileName, int[][] choiceCodes, int[] choiceDelays, IntBuffer nodeChoices, IntBuffer nodePaths, IntBuffer nodeChildren)
+		{
+			m_fileName = fileName;
+			m_choiceCodes = choiceCodes;
+			m_choiceDelays = choiceDelays;
+			m_nodeChoices = nodeChoices;
+			m_nodePaths = nodePaths;
+			m_nodeChildren = nodeChildren;
+		}
+
+		/**
+		 * @throws IllegalStateException
+		 *  if the stored arrays do not describe a tree.
+		 */
+		MenuTrie build()
+		{
+			try {
+				return MenuTrie.fromArrays(m_choiceCodes, m_choiceDelays, m_nodeChoices, m_nodePaths, m_nodeChildren);
+			} catch (IllegalArgumentException e) {
+				throw new IllegalStateException(m_fileName + ": " + e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Reads the menu tree section at the position of <code>tail</code>, leaving it positioned
+	 * after it. Only the choices are read; the node arrays are left in the mapping.
+	 */
+	private static StoredTrie readTrie(ByteBuffer tail, String fileName) throws IOException
+	{
+		if (tail.remaining() < 4)
+			throw new IOException(fileName + ": truncated menu tree");
+		int choices = tail.getInt();
+		if (choices < 0 || choices > tail.remaining() / 8)
+			throw new IOException(fileName + ": bad choice count " + choices);
+		int[][] choiceCodes = new int[choices][];
+		int[] choiceDelays = new int[choices];
+		for (int c = 0; c < choices; c++) {
+			if (tail.remaining() < 8)
+				throw new IOException(fileName + ": truncated menu tree");
+			choiceDelays[c] = tail.getInt();
+			int length = tail.getInt();
+			if (length < 0 || length > tail.remaining() / 4)
+				throw new IOException(fileName + ": truncated menu tree");
+			choiceCodes[c] = new int[length];
+			for (int j = 0; j < length; j++)
+				choiceCodes[c][j] = tail.getInt();
+		}
+		if (tail.remaining() < 4)
+			throw new IOException(fileName + ": truncated menu tree");
+		int nodes = tail.getInt();
+		if (nodes < 1 || nodes > tail.remaining() / 12)
+			throw new IOException(fileName + ": bad node count " + nodes);
+		int offset = tail.position();
+		IntBuffer nodeChoices = slice(tail, offset, 4 * nodes).asIntBuffer();
+		IntBuffer nodePaths = slice(tail, offset + 4 * nodes, 4 * nodes).asIntBuffer();
+		IntBuffer nodeChildren = slice(tail, offset + 8 * nodes, 4 * nodes).asIntBuffer();
+		tail.position(offset + 12 * nodes);
+		return new StoredTrie(fileName, choiceCodes, choiceDelays, nodeChoices, nodePaths, nodeChildren);
+	}
+
+	/**
+	 * Reads the variable names at the start of <code>tail</code>, leaving it positioned after them.
+	 */
+	private static String[] readVariableNames(ByteBuffer tail, String fileName) throws IOException
+	{
+		int count = tail.getInt();
+		if (count < 0 || count > PathStore.MAX_VARIABLES)
+			throw new IOException(fileName + ": bad variable count " + count);
+		String[] names = new String[count];
+		for (int v = 0; v < count; v++) {
+			if (tail.remaining() < 2)
+				throw new IOException(fileName + ": truncated variable names");
+			int length = tail.getShort() & 0xFFFF;
+			if (tail.remaining() < length)
+				throw new IOException(fileName + ": truncated variable names");
+			byte[] bytes = new byte[length];
+			tail.get(bytes);
+			// writeUTF's encoding matches UTF-8 for the letters, digits and '_' of a variable name
+			names[v] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return names;
+	}
+
+	private static ByteBuffer slice(ByteBuffer file, int offset, int length)
+	{
+		ByteBuffer view = file.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice();
+	}
+}
@@ -0,0 +1,143 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Path selection for regression runs: every path of the selection is called once in every
+ * <i>N</i> calls (<i>N</i> being the number of paths), so full coverage of the menu takes
+ * exactly <i>N</i> calls instead of the much larger number random picks need to reach the
+ * rare leaves.
+ * <br /><br />
+ * The order is fixed when the scheduler is built by walking the {@link MenuTrie}: each menu
+ * node hands out its branches in turn, so consecutive calls go down the branch that was
+ * exercised least recently rather than working through one sub-menu at a time. The
+ * <i>k</i>-th path played takes position <i>k</i> mod <i>N</i> of that order. The position
+ * is counted per selection, not taken from the call index, because a call that is not
+ * answered never selects a path: its position goes to the next call that is, so no path is
+ * skipped. The price is that, unlike the other {@link PathSelector}s, the path a given call
+ * index gets depends on which calls are answered and in which order their threads ask, so a
+ * seeded coverage run does not repeat call for call. Weights are ignored.
+ * <br /><br />
+ * Selected with <code>callgen.pathMode=coverage</code>.
+ */
+public class CoverageScheduler implements PathSelector {
+
+	/** How often, in percent of the paths, coverage progress is logged. */
+	static final int REPORT_STEP_PERCENT = 10;
+
+	private final PathCatalog m_catalog;
+	private final int[] m_order;
+	private final AtomicLongArray m_covered;
+	private final AtomicInteger m_coveredCount = new AtomicInteger();
+	private final AtomicLong m_selected = new AtomicLong();
+	private final Logger m_log;
+
+	/**
+	 * @param log
+	 *  Where coverage progress goes; may be null.
+	 */
+	public CoverageScheduler(PathCatalog.Selection selection, Logger log)
+	{
+		m_catalog = selection.getCatalog();
+		MenuTrie.Node node = m_catalog.getTrie().find(selection.getPrefix());
+		m_order = interleave(node);
+		if (m_order.length == 0)
+			throw new IllegalArgumentException("no paths to cover in " + m_catalog.getSource());
+		m_covered = new AtomicLongArray((m_order.length + 63) >> 6);
+		m_log = log;
+	}
+
+	/**
+	 * The paths at and below <code>node</code>, the node's own path first, then one path of
+	 * each branch in turn.
+	 */
+	private static int[] interleave(MenuTrie.Node node)
+	{
+		List<MenuTrie.Node> children = new ArrayList<MenuTrie.Node>(node.getChildren());
+		Collections.sort(children, new Comparator<MenuTrie.Node>() {
+			public int compare(MenuTrie.Node a, MenuTrie.Node b) {
+				return a.toString().compareTo(b.toString());
+			}
+		});
+		int[][] branches = new int[children.size()][];
+		for (int c = 0; c < branches.length; c++)
+			branches[c] = interleave(children.get(c));
+
+		int[] order = new int[node.getPathCount()];
+		int n = 0;
+		if (node.getPathIndex() >= 0)
+			order[n++] = node.getPathIndex();
+		for (int round = 0; n < order.length; round++) {
+			for (int[] branch : branches) {
+				if (round < branch.length)
+					order[n++] = branch[round];
+			}
+		}
+		return order;
+	}
+
+	public PathCatalog getCatalog()
+	{
+		return m_catalog;
+	}
+
+	/**
+	 * The path at the next position of the order; <code>callIndex</code> and <code>random</code>
+	 * are not used.
+	 */
+	public int select(long callIndex, SplittableRandom random)
+	{
+		int position = (int)(m_selected.getAndIncrement() % m_order.length);
+		markCovered(position);
+		return m_order[position];
+	}
+
+	private void markCovered(int position)
+	{
+		int word = position >> 6;
+		long bit = 1L << (position & 63);
+		long bits;
+		do {
+			bits = m_covered.get(word);
+			if ((bits & bit) != 0)
+				return;
+		} while (!m_covered.compareAndSet(word, bits, bits | bit));
+
+		int covered = m_coveredCount.incrementAndGet();
+		int step = Math.max(1, (m_order.length * REPORT_STEP_PERCENT) / 100);
+		if (m_log != null && (covered % step == 0 || covered == m_order.length))
+			m_log.Write(toString());
+	}
+
+	/**
+	 * Number of paths to cover.
+	 */
+	public int size()
+	{
+		return m_order.length;
+	}
+
+	/**
+	 * Number of distinct paths selected so far.
+	 */
+	public int getCoveredCount()
+	{
+		return m_coveredCount.get();
+	}
+
+	public double getCoveragePercent()
+	{
+		return (100.0 * m_coveredCount.get()) / m_order.length;
+	}
+
+	public String toString()
+	{
+		return String.format("Coverage %.1f%% (%d of %d paths) after %d calls",
+				getCoveragePercent(), getCoveredCount(), size(), m_selected.get());
+	}
+}
@@ -0,0 +1,301 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.Locale;
+import java.util.SplittableRandom;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rows of a CSV file, handed to calls one at a time to give values to named path variables,
+ * e.g. a list of customer IDs and their PINs.
+ * <br /><br />
+ * The first line names the columns; every column is a variable of that name, and every
+ * following line is one row of values. Fields are separated by commas and trimmed; there is no
+ * quoting. A value must be all digits, since it is sent as DTMF; rows that are not are skipped
+ * and counted.
+ * <br /><br />
+ * The file is streamed, never held in memory: a background thread reads ahead up to
+ * <code>prefetch</code> rows into a queue, from which calls take them, so calls never wait on
+ * the disk unless the reader falls that far behind. Rows are handed out
+ * <ul>
+ * <li>{@link Mode#SEQUENTIAL} in file order, starting over at the end;</li>
+ * <li>{@link Mode#RANDOM} in random order, drawn from a window of <code>window</code> rows
+ * that is refilled as it is used, the file cycling as in sequential mode; each row is
+ * equally likely within the window, not within the whole file;</li>
+ * <li>{@link Mode#UNIQUE} in file order, each row once; after the last one the feed is
+ * exhausted and {@link #next(SplittableRandom)} returns null.</li>
+ * </ul>
+ */
+public class DataFeed {
+
+	public static final String MY_CLASS_TAG = "DataFeed";
+
+	public enum Mode {
+		SEQUENTIAL, RANDOM, UNIQUE
+	}
+
+	// Put on the queue after the last row of a unique (or empty) feed
+	private static final String[] END = new String[0];
+
+	private final String mFileName;
+	private final Mode mMode;
+	private final String[] mColumns;
+	private final BlockingQueue<String[]> mQueue;
+	private final Thread mReader;
+	private final AtomicLong mServed = new AtomicLong();
+	private final AtomicLong mSkipped = new AtomicLong();
+	private volatile boolean mExhausted = false;
+	private volatile String mError = null;
+
+	// Random mode only, guarded by itself; never held while waiting on the queue
+	private final String[][] mWindow;
+	private int mWindowCount = 0;
+
+	/**
+	 * Opens a feed and starts reading ahead.
+	 *
+	 * @throws IOException
+	 *  if the file cannot be read or its header does not name valid, distinct variables.
+	 */
+	public DataFeed(String fileName, Mode mode, int prefetch, int window) throws IOException
+	{
+		mFileName = fileName;
+		mMode = mode;
+		BufferedReader br = open();
+		try {
+			String header = br.readLine();
+			if (header == null)
+				throw new IOException(fileName + ": no header line");
+			mColumns = split(header);
+			for (int c = 0; c < mColumns.length; c++) {
+				if (!PathCatalog.isVariableName(mColumns[c]))
+					throw new IOException(fileName + ": not a variable name: '" + mColumns[c] + "'");
+				for (int d = 0; d < c; d++) {
+					if (mColumns[d].equals(mColumns[c]))
+						throw new IOException(fileName + ": column " + mColumns[c] + " named twice");
+				}
+			}
+		} finally {
+			br.close();
+		}
+		mQueue = new ArrayBlockingQueue<String[]>(Math.max(1, prefetch));
+		mWindow = (mode == Mode.RANDOM) ? new String[Math.max(1, window)][] : null;
+		mReader = new Thread(new Runnable() {
+			public void run() {
+				read();
+			}
+		}, MY_CLASS_TAG + "-" + fileName);
+		mReader.setDaemon(true);
+		mReader.start();
+	}
+
+	/**
+	 * Parses <code>name[:mode]</code>, e.g. <code>customers.csv:unique</code>; the mode
+	 * defaults to sequential.
+	 */
+	public static DataFeed open(String spec, int prefetch, int window) throws IOException
+	{
+		Mode mode = Mode.SEQUENTIAL;
+		String fileName = spec.trim();
+		int colon = fileName.lastIndexOf(':');
+		if (colon > 0) {
+			String name = fileName.substring(colon + 1).trim().toUpperCase(Locale.ROOT);
+			for (Mode m : Mode.values()) {
+				if (m.name().equals(name)) {
+					mode = m;
+					fileName = fileName.substring(0, colon).trim();
+				}
+			}
+		}
+		return new DataFeed(fileName, mode, prefetch, window);
+	}
+
+	private BufferedReader open() throws IOException
+	{
+		return new BufferedReader(new InputStreamReader(new FileInputStream(mFileName), "US-ASCII"), 1 << 16);
+	}
+
+	private static String[] split(String line)
+	{
+		String[] fields = line.split(",", -1);
+		for (int i = 0; i < fields.length; i++)
+			fields[i] = fields[i].trim();
+		return fields;
+	}
+
+	/**
+	 * The reader thread: streams the file into the queue, over and over unless the feed is unique.
+	 */
+	private void read()
+	{
+		try {
+			for (boolean firstPass = true; ; firstPass = false) {
+				long rows = 0;
+				BufferedReader br = open();
+				try {
+					br.readLine();
+					String line;
+					int lineNo = 1;
+					while ((line = br.readLine()) != null) {
+						lineNo++;
+						if (line.trim().isEmpty())
+							continue;
+						String[] row = split(line);
+						String problem = check(row);
+						if (problem != null) {
+							if (firstPass && mSkipped.incrementAndGet() == 1)
+								System.err.printf("%s: %s:%d: %s (row skipped)%n", MY_CLASS_TAG, mFileName, lineNo, problem);
+							continue;
+						}
+						mQueue.put(row);
+						rows++;
+					}
+				} finally {
+					br.close();
+				}
+				if (mMode == Mode.UNIQUE || rows == 0)
+					break;
+			}
+		} catch (InterruptedException e) {
+			// close() was called
+			return;
+		} catch (IOException e) {
+			mError = e.getMessage();
+			System.err.printf("%s: %s%n", MY_CLASS_TAG, e.getMessage());
+		}
+		try {
+			mQueue.put(END);
+		} catch (InterruptedException e) {
+			// close() was called
+		}
+	}
+
+	private String check(String[] row)
+	{
+		if (row.length != mColumns.length)
+			return String.format("%d fields, expected %d", row.length, mColumns.length);
+		for (int c = 0; c < row.length; c++) {
+			if (row[c].isEmpty())
+				return "no value for " + mColumns[c];
+			for (int k = 0; k < row[c].length(); k++) {
+				char ch = row[c].charAt(k);
+				if (ch < '0' || ch > '9')
+					return String.format("%s is not all digits: '%s'", mColumns[c], row[c]);
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * The next row, its values in the order of {@link #getColumns()}, or null once a unique
+	 * feed (or a feed with no valid rows) is exhausted. Waits only if the reader has fallen
+	 * behind. Safe to call from any number of call threads.
+	 *
+	 * @param random
+	 *  The call's random stream; used in random mode only.
+	 */
+	public String[] next(SplittableRandom random) throws InterruptedException
+	{
+		if (mMode != Mode.RANDOM)
+			return served(take());
+		// The row that replaces the one drawn, taken before the lock so that a call waiting for
+		// the reader does not hold up the others
+		String[] refill = take();
+		synchronized (mWindow) {
+			if (refill != null && mWindowCount < mWindow.length) {
+				// Still filling: add whatever the reader has ready, without waiting for more
+				mWindow[mWindowCount++] = refill;
+				refill = null;
+				String[] row;
+				while (mWindowCount < mWindow.length && (row = poll()) != null)
+					mWindow[mWindowCount++] = row;
+			}
+			if (mWindowCount == 0)
+				return null;
+			int slot = random.nextInt(mWindowCount);
+			String[] row = mWindow[slot];
+			if (refill != null)
+				mWindow[slot] = refill;
+			else
+				mWindow[slot] = mWindow[--mWindowCount];
+			return served(row);
+		}
+	}
+
+	/**
+	 * Like {@link #take()}, but returns null at once if the reader has no row ready.
+	 */
+	private String[] poll()
+	{
+		if (mExhausted)
+			return null;
+		String[] row = mQueue.poll();
+		if (row == END) {
+			mExhausted = true;
+			mQueue.offer(END);
+			return null;
+		}
+		return row;
+	}
+
+	private String[] take() throws InterruptedException
+	{
+		if (mExhausted)
+			return null;
+		String[] row = mQueue.take();
+		if (row == END) {
+			mExhausted = true;
+			// Leave the marker for the other call threads waiting on the queue
+			mQueue.put(END);
+			return null;
+		}
+		return row;
+	}
+
+	private String[] served(String[] row)
+	{
+		if (row != null)
+			mServed.incrementAndGet();
+		return row;
+	}
+
+	/**
+	 * Names of the columns, i.e. of the variables the feed gives values to.
+	 */
+	public String[] getColumns()
+	{
+		return mColumns.clone();
+	}
+
+	public String getFileName()
+	{
+		return mFileName;
+	}
+
+	public Mode getMode()
+	{
+		return mMode;
+	}
+
+	public boolean isExhausted()
+	{
+		return mExhausted;
+	}
+
+	/**
+	 * Stops the reader thread.
+	 */
+	public void close()
+	{
+		mReader.interrupt();
+	}
+
+	public String toString()
+	{
+		return String.format("%s (%s): %d rows served, %d skipped%s%s", mFileName, mMode.name().toLowerCase(Locale.ROOT),
+				mServed.get(), mSkipped.get(), mExhausted ? ", exhausted" : "", (mError == null) ? "" : ", " + mError);
+	}
+}
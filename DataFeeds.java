@@ -0,0 +1,142 @@
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The data feeds of a run, by the variables they give values to.
+ * <br /><br />
+ * Configured with <code>callgen.feeds</code>, a list of CSV files separated by <code>;</code>,
+ * each optionally followed by <code>:sequential</code> (the default), <code>:random</code> or
+ * <code>:unique</code>, e.g.
+ * <code>-Dcallgen.feeds=customers.csv:unique;branches.csv:random</code>. See {@link DataFeed}
+ * for the file format and the modes. <code>callgen.feedPrefetch</code> (default 4096) is the
+ * number of rows read ahead per feed, <code>callgen.feedWindow</code> (default 10000) the
+ * number of rows a random feed draws from.
+ * <br /><br />
+ * A call takes one row from each feed its path needs, so the values of one row (a customer
+ * and that customer's PIN) always go together.
+ */
+public class DataFeeds {
+
+	private final List<DataFeed> mFeeds;
+	// By PathTemplate.variableIndex: the feed and column that give the variable its values
+	private DataFeed[] mFeedOf = new DataFeed[0];
+	private int[] mColumnOf = new int[0];
+
+	/**
+	 * @throws IllegalArgumentException
+	 *  if two feeds have a column of the same name.
+	 */
+	public DataFeeds(List<DataFeed> feeds)
+	{
+		mFeeds = new ArrayList<DataFeed>(feeds);
+		for (DataFeed feed : mFeeds) {
+			String[] columns = feed.getColumns();
+			for (int c = 0; c < columns.length; c++) {
+				int index = PathTemplate.variableIndex(PathTemplate.variable(columns[c]));
+				if (index >= mFeedOf.length) {
+					mFeedOf = Arrays.copyOf(mFeedOf, index + 1);
+					mColumnOf = Arrays.copyOf(mColumnOf, index + 1);
+				}
+				if (mFeedOf[index] != null)
+					throw new IllegalArgumentException(String.format("%s and %s both give values to %s",
+							mFeedOf[index].getFileName(), feed.getFileName(), columns[c]));
+				mFeedOf[index] = feed;
+				mColumnOf[index] = c;
+			}
+		}
+	}
+
+	/**
+	 * The feeds named by <code>callgen.feeds</code>; none if it is not set.
+	 */
+	public static DataFeeds fromConfig() throws IOException
+	{
+		List<DataFeed> feeds = new ArrayList<DataFeed>();
+		String specs = GeneratorConfig.getString("feeds", "");
+		int prefetch = GeneratorConfig.getInt("feedPrefetch", 4096);
+		int window = GeneratorConfig.getInt("feedWindow", 10000);
+		try {
+			for (String spec : specs.split(";")) {
+				if (!spec.trim().isEmpty())
+					feeds.add(DataFeed.open(spec, prefetch, window));
+			}
+			return new DataFeeds(feeds);
+		} catch (IOException e) {
+			close(feeds);
+			throw e;
+		} catch (IllegalArgumentException e) {
+			close(feeds);
+			throw new IOException(e.getMessage());
+		}
+	}
+
+	/**
+	 * Whether some feed gives values to <code>name</code>.
+	 */
+	public boolean provides(String name)
+	{
+		int index = PathTemplate.variableIndex(PathTemplate.variable(name));
+		return index < mFeedOf.length && mFeedOf[index] != null;
+	}
+
+	/**
+	 * Values for the named variables of one call, taking one row from each feed involved.
+	 *
+	 * @param variables
+	 *  {@link PathTemplate} codes of the variables, see {@link PathCatalog#getVariables(int)}.
+	 * @return
+	 *  The values by {@link PathTemplate#variableIndex(int)}, for {@link PathCatalog#bind(int, int, int, String[])}.
+	 * @throws IllegalStateException
+	 *  if a variable has no feed, or its feed is exhausted.
+	 */
+	public String[] bind(int[] variables, SplittableRandom random) throws InterruptedException
+	{
+		int size = 0;
+		for (int code : variables)
+			size = Math.max(size, PathTemplate.variableIndex(code) + 1);
+		String[] values = new String[size];
+		DataFeed[] feeds = new DataFeed[variables.length];
+		String[][] rows = new String[variables.length][];
+		int feedCount = 0;
+		for (int code : variables) {
+			int index = PathTemplate.variableIndex(code);
+			DataFeed feed = (index < mFeedOf.length) ? mFeedOf[index] : null;
+			if (feed == null)
+				throw new IllegalStateException("no data feed gives values to ${" + PathTemplate.variableName(code) + "}");
+			int f = 0;
+			while (f < feedCount && feeds[f] != feed)
+				f++;
+			if (f == feedCount) {
+				feeds[feedCount] = feed;
+				rows[feedCount] = feed.next(random);
+				if (rows[feedCount] == null)
+					throw new IllegalStateException("data feed " + feed.getFileName() + " is exhausted");
+				feedCount++;
+			}
+			values[index] = rows[f][mColumnOf[index]];
+		}
+		return values;
+	}
+
+	public List<DataFeed> getFeeds()
+	{
+		return new ArrayList<DataFeed>(mFeeds);
+	}
+
+	/**
+	 * Stops reading every feed.
+	 */
+	public void close()
+	{
+		close(mFeeds);
+	}
+
+	private static void close(List<DataFeed> feeds)
+	{
+		for (DataFeed feed : feeds)
+			feed.close();
+	}
+}
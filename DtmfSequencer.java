@@ -0,0 +1,210 @@
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.skype.api.Conversation;
+import com.skype.api.Participant;
+
+import util.HashedWheelTimer;
+import util.MySession;
+
+/**
+ * Plays a {@link Path} as DTMF on a conversation from the shared {@link HashedWheelTimer}
+ * instead of parking the call's thread in <code>Thread.sleep</code> for every delay.
+ * <br /><br />
+ * When a sequence starts, every digit gets an absolute send time: each {@link PartialPath}
+ * begins its delay after the previous part, and digits within a part are
+ * <code>digitGapMs</code> apart. Digits due at the same time are sent back to back in one
+ * timer task, and each task schedules the next one only after it has sent its digits, so
+ * digits always go out in order even with several dispatch threads. Since the next send time
+ * comes from the plan rather than from when the previous task ran, a late task does not delay
+ * the rest of the sequence.
+ * <br /><br />
+ * Each digit's <code>sendDtmf</code> is timed from the digit's planned send time, see
+ * {@link LatencyStats#getDtmfSend()}, and recorded in the {@link EventLog}.
+ */
+public class DtmfSequencer {
+
+	/** Duration of one DTMF tone passed to <code>sendDtmf</code>. */
+	public static final int DTMF_LENGTH_MS = 500;
+
+	private final HashedWheelTimer mTimer;
+	private final long mDigitGapNanos;
+	private final LatencyStats mStats;
+	private final EventLog mEvents;
+
+	/**
+	 * Where the digits of a sequence go; {@link DtmfSequencer#play(Conversation, Path, Logger, long)}
+	 * sends them on a conversation.
+	 */
+	public interface Tones {
+		void send(int digit);
+	}
+
+	public DtmfSequencer(HashedWheelTimer timer, long digitGapMs, LatencyStats stats, EventLog events)
+	{
+		mTimer = timer;
+		mDigitGapNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, digitGapMs));
+		mStats = stats;
+		mEvents = events;
+	}
+
+	/**
+	 * Starts playing the path now.
+	 *
+	 * @param callIndex
+	 *  The call's number, for the event log.
+	 */
+	public Sequence play(final Conversation conversation, Path path, Logger log, long callIndex)
+	{
+		return play(new Tones() {
+			public void send(int digit) {
+				conversation.sendDtmf(Participant.Dtmf.get(digit), DTMF_LENGTH_MS);
+			}
+		}, path, log, callIndex);
+	}
+
+	/**
+	 * Starts playing the path now, into <code>tones</code>.
+	 */
+	public Sequence play(Tones tones, Path path, Logger log, long callIndex)
+	{
+		int count = path.getDigitCount();
+
+		int[] digits = new int[count];
+		long[] due = new long[count];
+		long t = System.nanoTime();
+		int n = 0;
+		for (int i = 0; i < path.size(); i++) {
+			if (path.getDelay(i) > 0)
+				t += TimeUnit.MILLISECONDS.toNanos(path.getDelay(i));
+			for (int d = 0; d < path.getDigitCount(i); d++) {
+				if (d > 0)
+					t += mDigitGapNanos;
+				digits[n] = path.getDigit(i, d);
+				due[n] = t;
+				n++;
+			}
+		}
+
+		Sequence sequence = new Sequence(tones, digits, due, log, callIndex);
+		sequence.scheduleFrom(0);
+		return sequence;
+	}
+
+	/**
+	 * One path being played on one conversation.
+	 */
+	public class Sequence {
+		private final Tones mTones;
+		private final int[] mDigits;
+		private final long[] mDue;
+		private final Logger mLog;
+		private final long mCallIndex;
+		private final CountDownLatch mDone = new CountDownLatch(1);
+		private volatile HashedWheelTimer.Timeout mNext;
+		private volatile boolean mCancelled = false;
+		private long mMaxLateNanos = 0;
+		private volatile long mFirstSentNanos = 0;
+		private volatile int mSentCount = 0;
+
+		private Sequence(Tones tones, int[] digits, long[] due, Logger log, long callIndex)
+		{
+			mTones = tones;
+			mDigits = digits;
+			mDue = due;
+			mLog = log;
+			mCallIndex = callIndex;
+		}
+
+		private void scheduleFrom(final int first)
+		{
+			if (mCancelled || first >= mDigits.length) {
+				finish();
+				return;
+			}
+			mNext = mTimer.newTimeoutAt(new Runnable() {
+				public void run() {
+					sendFrom(first);
+				}
+			}, mDue[first]);
+			if (mCancelled && mNext.cancel())
+				finish();
+		}
+
+		private void sendFrom(int first)
+		{
+			long late = System.nanoTime() - mDue[first];
+			if (late > mMaxLateNanos)
+				mMaxLateNanos = late;
+
+			int i = first;
+			do {
+				if (mCancelled) {
+					finish();
+					return;
+				}
+				mTones.send(mDigits[i]);
+				long sent = System.nanoTime();
+				mStats.getDtmfSend().recordNanos(sent - mDue[i]);
+				mEvents.recordAtNanoTime(EventLog.TYPE_DIGIT_SENT, mDigits[i], i, sent, mCallIndex, sent - mDue[i]);
+				mSentCount = i + 1;
+				if (i == 0)
+					mFirstSentNanos = sent;
+				MySession.myConsole.printf("Send DTMF   = %d%n", mDigits[i]);
+				i++;
+			} while (i < mDigits.length && mDue[i] == mDue[first]);
+			scheduleFrom(i);
+		}
+
+		private synchronized void finish()
+		{
+			if (mDone.getCount() > 0) {
+				mDone.countDown();
+				// The event log has every digit and its lateness
+				if (!mCancelled && !mEvents.isEnabled())
+					mLog.Write(String.format("DTMF sequence done: %d digits, max late = %d us",
+							mDigits.length, TimeUnit.NANOSECONDS.toMicros(mMaxLateNanos)));
+			}
+		}
+
+		/**
+		 * Stops sending; digits not yet sent are dropped.
+		 */
+		public void cancel()
+		{
+			mCancelled = true;
+			HashedWheelTimer.Timeout next = mNext;
+			if (next != null && next.cancel())
+				finish();
+		}
+
+		/**
+		 * Waits until every digit has been sent or the sequence was cancelled.
+		 */
+		public void awaitDone() throws InterruptedException
+		{
+			mDone.await();
+		}
+
+		/**
+		 * <code>System.nanoTime()</code> at which the first digit's <code>sendDtmf</code> returned, or 0 if it has not.
+		 */
+		public long getFirstSentNanos()
+		{
+			return mFirstSentNanos;
+		}
+
+		/**
+		 * Number of digits sent so far.
+		 */
+		public int getSentCount()
+		{
+			return mSentCount;
+		}
+
+		public boolean isDone()
+		{
+			return mDone.getCount() == 0;
+		}
+	}
+}
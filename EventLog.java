@@ -0,0 +1,197 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * The binary event log: what each call did, as fixed-size records with nanosecond time stamps
+ * and numeric IDs, for analysis after the run. {@link EventLogReader} turns it into text or CSV.
+ * <br /><br />
+ * Recording an event stores four <code>long</code>s in a preallocated {@link LogRing}; the
+ * ring's thread packs them into 32-byte records and writes them in large blocks. Nothing is
+ * formatted and nothing is allocated on the call threads.
+ * <br /><br />
+ * File layout, little-endian: a 16-byte header (magic <code>IVRE</code>, version, record size,
+ * flags), then the records:
+ * <pre>
+ * offset  size  field
+ *  0      1     type, one of the TYPE_ constants
+ *  1      1     aux: digit, status, x*10+y or outcome, by type
+ *  2      2     reserved, 0
+ *  4      4     number: session port, catalog index or digit position, by type
+ *  8      8     time, nanoseconds since the epoch (see {@link LogClock})
+ * 16      8     call index
+ * 24      8     value: lateness, path ID or duration in nanoseconds, by type
+ * </pre>
+ * Enabled with <code>callgen.eventLog=&lt;file&gt;</code>, in which <code>{run}</code> stands
+ * for the {@link GeneratorConfig#runId() run ID}; otherwise every record method
+ * returns at once. The ring has <code>callgen.eventBuffer</code> slots (default 65536); when it
+ * is full, <code>callgen.logFull</code> decides as for the text log. While it is enabled, the
+ * per-call lines it makes redundant (answer, path chosen, DTMF done, end) are left out of the
+ * text log.
+ */
+public class EventLog {
+
+	/** "IVRE" */
+	public static final int MAGIC = 0x49565245;
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 16;
+	public static final int RECORD_BYTES = 32;
+
+	/** A call is rung. number: session port; value: ns the call started after it was scheduled (0 if unscheduled). */
+	public static final int TYPE_CALL_START = 1;
+	/** A path is chosen. aux: x*10+y; number: catalog index (-1 for a menu graph walk); value: path ID. */
+	public static final int TYPE_PATH_CHOSEN = 2;
+	/** A DTMF digit is sent. aux: digit; number: position in the path; value: ns after its planned time. */
+	public static final int TYPE_DIGIT_SENT = 3;
+	/** The call's live status changes. aux: one of the STATUS_ constants. */
+	public static final int TYPE_LIVE_STATUS = 4;
+	/** A call ends. aux: one of the OUTCOME_ constants; number: digits sent; value: duration in ns. */
+	public static final int TYPE_CALL_END = 5;
+
+	public static final int STATUS_RINGING = 1;
+	public static final int STATUS_LIVE = 2;
+	public static final int STATUS_ENDED = 3;
+
+	public static final int OUTCOME_COMPLETED = 0;
+	public static final int OUTCOME_NOT_ANSWERED = 1;
+	public static final int OUTCOME_NO_ANSWER_TIMEOUT = 2;
+	/** Answered, but no path could be bound (e.g. a unique data feed ran out); hung up, and the run stopped. */
+	public static final int OUTCOME_NO_PATH = 3;
+	/** The call's thread was interrupted (the engine shut down); hung up. */
+	public static final int OUTCOME_INTERRUPTED = 4;
+
+	private final LogClock mClock = LogClock.SHARED;
+	private final LogRing mRing;
+	// Per ring slot: the record as four longs
+	private final long[] mRecords;
+	private final FileChannel mChannel;
+	// Used by the ring's thread only
+	private final ByteBuffer mBlock = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+	private IOException mError = null;
+
+	private EventLog(String fileName) throws IOException
+	{
+		if (fileName == null) {
+			mRing = null;
+			mRecords = null;
+			mChannel = null;
+			return;
+		}
+		mRing = LogRing.fromConfig("eventBuffer", 65536);
+		mRecords = new long[4 * mRing.size()];
+		mChannel = new FileOutputStream(fileName).getChannel();
+		mBlock.putInt(MAGIC).putInt(VERSION).putInt(RECORD_BYTES).putInt(0);
+		mRing.start("EventLog", new LogRing.Handler() {
+			public void onEntry(int slot) {
+				if (mBlock.remaining() < RECORD_BYTES)
+					writeBlock();
+				int i = slot << 2;
+				mBlock.putLong(mRecords[i]).putLong(mRecords[i + 1]).putLong(mRecords[i + 2]).putLong(mRecords[i + 3]);
+			}
+
+			public void onBatch() {
+			}
+
+			public void onIdle() {
+				writeBlock();
+			}
+		});
+	}
+
+	/**
+	 * The event log named by <code>callgen.eventLog</code>, or one that records nothing.
+	 */
+	public static EventLog fromConfig() throws IOException
+	{
+		String fileName = GeneratorConfig.getString("eventLog", null);
+		return new EventLog((fileName == null) ? null : GeneratorConfig.runFileName(fileName));
+	}
+
+	/**
+	 * An event log that records nothing.
+	 */
+	public static EventLog disabled()
+	{
+		try {
+			return new EventLog(null);
+		} catch (IOException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	public boolean isEnabled()
+	{
+		return mRing != null;
+	}
+
+	/**
+	 * Records an event stamped now.
+	 */
+	public void record(int type, int aux, int number, long callIndex, long value)
+	{
+		if (mRing != null)
+			recordAt(type, aux, number, mClock.nanos(), callIndex, value);
+	}
+
+	/**
+	 * Records an event that happened at <code>nanoTime</code>, a <code>System.nanoTime()</code> reading.
+	 */
+	public void recordAtNanoTime(int type, int aux, int number, long nanoTime, long callIndex, long value)
+	{
+		if (mRing != null)
+			recordAt(type, aux, number, mClock.toEpochNanos(nanoTime), callIndex, value);
+	}
+
+	private void recordAt(int type, int aux, int number, long time, long callIndex, long value)
+	{
+		long seq = mRing.claim();
+		if (seq < 0)
+			return;
+		int i = mRing.slot(seq) << 2;
+		mRecords[i] = (type & 0xFF) | ((aux & 0xFFL) << 8) | ((long)number << 32);
+		mRecords[i + 1] = time;
+		mRecords[i + 2] = callIndex;
+		mRecords[i + 3] = value;
+		mRing.publish(seq);
+	}
+
+	private void writeBlock()
+	{
+		mBlock.flip();
+		try {
+			while (mBlock.hasRemaining())
+				mChannel.write(mBlock);
+		} catch (IOException e) {
+			if (mError == null) {
+				mError = e;
+				System.err.println("EventLog: " + e.getMessage());
+			}
+		}
+		mBlock.clear();
+	}
+
+	/**
+	 * Number of events dropped because the ring was full.
+	 */
+	public long getDroppedCount()
+	{
+		return (mRing == null) ? 0 : mRing.getDroppedCount();
+	}
+
+	/**
+	 * Writes out every event recorded so far and closes the file.
+	 */
+	public void close()
+	{
+		if (mRing == null)
+			return;
+		mRing.close();
+		try {
+			mChannel.close();
+		} catch (IOException e) {
+			System.err.println("EventLog: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,229 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Locale;
+
+/**
+ * Reads an {@link EventLog} file.
+ * <br /><br />
+ * Usage: <code>java EventLogReader events.bin [text|csv]</code> prints every record, as
+ * text (default) such as
+ * <pre>
+ * 2024/05/17 14:03:22.041337 call 17 DIGIT_SENT digit=3 position=2 late_us=112
+ * </pre>
+ * or as CSV with the columns <code>time_ns,type,call,aux,number,value</code>, raw, for
+ * spreadsheets and scripts.
+ */
+public class EventLogReader {
+
+	private final DataInputStream mIn;
+	private final ByteBuffer mRecord = ByteBuffer.allocate(EventLog.RECORD_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+	// The current record
+	private int mType;
+	private int mAux;
+	private int mNumber;
+	private long mTime;
+	private long mCallIndex;
+	private long mValue;
+
+	/**
+	 * @throws IOException
+	 *  if the stream does not start with an event log header of this version.
+	 */
+	public EventLogReader(InputStream in) throws IOException
+	{
+		mIn = new DataInputStream(new BufferedInputStream(in, 1 << 16));
+		byte[] header = new byte[EventLog.HEADER_BYTES];
+		mIn.readFully(header);
+		ByteBuffer buffer = ByteBuffer.wrap(header).order(ByteOrder.LITTLE_ENDIAN);
+		if (buffer.getInt() != EventLog.MAGIC)
+			throw new IOException("not an event log");
+		int version = buffer.getInt();
+		if (version != EventLog.VERSION)
+			throw new IOException("event log version " + version + ", expected " + EventLog.VERSION);
+		if (buffer.getInt() != EventLog.RECORD_BYTES)
+			throw new IOException("unexpected record size");
+	}
+
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].matches("text|csv"))) {
+			System.out.println("Usage is EventLogReader eventFile [text|csv]");
+			return;
+		}
+		boolean csv = (args.length == 2) && args[1].equals("csv");
+		EventLogReader reader = new EventLogReader(new FileInputStream(args[0]));
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, "US-ASCII"), 1 << 16);
+		LogClock.Formatter formatter = new LogClock.Formatter(LogClock.Resolution.MICROS);
+		try {
+			if (csv)
+				out.write("time_ns,type,call,aux,number,value\n");
+			while (reader.next())
+				out.write(csv ? reader.toCsv() : reader.toText(formatter));
+		} finally {
+			out.flush();
+			reader.close();
+		}
+	}
+
+	/**
+	 * Reads the next record.
+	 *
+	 * @return false at the end of the file (a partly written last record is ignored).
+	 */
+	public boolean next() throws IOException
+	{
+		try {
+			mIn.readFully(mRecord.array());
+		} catch (EOFException e) {
+			return false;
+		}
+		mRecord.clear();
+		long word = mRecord.getLong();
+		mType = (int)(word & 0xFF);
+		mAux = (int)((word >>> 8) & 0xFF);
+		mNumber = (int)(word >>> 32);
+		mTime = mRecord.getLong();
+		mCallIndex = mRecord.getLong();
+		mValue = mRecord.getLong();
+		return true;
+	}
+
+	public int getType()
+	{
+		return mType;
+	}
+
+	public int getAux()
+	{
+		return mAux;
+	}
+
+	public int getNumber()
+	{
+		return mNumber;
+	}
+
+	/**
+	 * Nanoseconds since the epoch.
+	 */
+	public long getTime()
+	{
+		return mTime;
+	}
+
+	public long getCallIndex()
+	{
+		return mCallIndex;
+	}
+
+	public long getValue()
+	{
+		return mValue;
+	}
+
+	public static String typeName(int type)
+	{
+		switch (type) {
+		case EventLog.TYPE_CALL_START:
+			return "CALL_START";
+		case EventLog.TYPE_PATH_CHOSEN:
+			return "PATH_CHOSEN";
+		case EventLog.TYPE_DIGIT_SENT:
+			return "DIGIT_SENT";
+		case EventLog.TYPE_LIVE_STATUS:
+			return "LIVE_STATUS";
+		case EventLog.TYPE_CALL_END:
+			return "CALL_END";
+		default:
+			return "TYPE_" + type;
+		}
+	}
+
+	private static String statusName(int status)
+	{
+		switch (status) {
+		case EventLog.STATUS_RINGING:
+			return "RINGING";
+		case EventLog.STATUS_LIVE:
+			return "LIVE";
+		case EventLog.STATUS_ENDED:
+			return "ENDED";
+		default:
+			return Integer.toString(status);
+		}
+	}
+
+	private static String outcomeName(int outcome)
+	{
+		switch (outcome) {
+		case EventLog.OUTCOME_COMPLETED:
+			return "completed";
+		case EventLog.OUTCOME_NOT_ANSWERED:
+			return "not_answered";
+		case EventLog.OUTCOME_NO_ANSWER_TIMEOUT:
+			return "no_answer_timeout";
+		case EventLog.OUTCOME_NO_PATH:
+			return "no_path";
+		case EventLog.OUTCOME_INTERRUPTED:
+			return "interrupted";
+		default:
+			return Integer.toString(outcome);
+		}
+	}
+
+	/**
+	 * The current record as a line of text.
+	 */
+	public String toText(LogClock.Formatter formatter)
+	{
+		StringBuilder sb = new StringBuilder(96);
+		sb.append(formatter.chars(), 0, formatter.format(mTime));
+		sb.append(" call ").append(mCallIndex).append(' ').append(typeName(mType));
+		switch (mType) {
+		case EventLog.TYPE_CALL_START:
+			sb.append(" port=").append(mNumber).append(" late_us=").append(mValue / 1000);
+			break;
+		case EventLog.TYPE_PATH_CHOSEN:
+			PathId.appendTo(sb.append(" path="), mValue).append(" index=").append(mNumber)
+					.append(" x=").append(mAux / 10).append(" y=").append(mAux % 10);
+			break;
+		case EventLog.TYPE_DIGIT_SENT:
+			sb.append(" digit=").append(mAux).append(" position=").append(mNumber).append(" late_us=").append(mValue / 1000);
+			break;
+		case EventLog.TYPE_LIVE_STATUS:
+			sb.append(" status=").append(statusName(mAux));
+			break;
+		case EventLog.TYPE_CALL_END:
+			sb.append(" outcome=").append(outcomeName(mAux)).append(" digits=").append(mNumber)
+					.append(" duration_ms=").append(mValue / 1000000);
+			break;
+		default:
+			sb.append(String.format(Locale.ROOT, " aux=%d number=%d value=%d", mAux, mNumber, mValue));
+		}
+		return sb.append('\n').toString();
+	}
+
+	/**
+	 * The current record as a CSV line.
+	 */
+	public String toCsv()
+	{
+		return new StringBuilder(80).append(mTime).append(',').append(typeName(mType)).append(',').append(mCallIndex)
+				.append(',').append(mAux).append(',').append(mNumber).append(',').append(mValue).append('\n').toString();
+	}
+
+	public void close() throws IOException
+	{
+		mIn.close();
+	}
+}
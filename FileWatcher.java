@@ -0,0 +1,102 @@
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs an action on a background thread whenever a file changes.
+ * <br /><br />
+ * The file's directory is watched with a {@link WatchService}. Editors and copy tools usually
+ * write a file in several steps, so the action only runs once the file has been quiet for
+ * <code>quietMillis</code>; a burst of writes gives one action. Changes to other files of the
+ * directory neither run the action nor hold it back. The action runs on the watcher
+ * thread, never on a call thread.
+ */
+public class FileWatcher {
+
+	public static final String MY_CLASS_TAG = "FileWatcher";
+
+	private final Path mFile;
+	private final long mQuietMillis;
+	private final Runnable mAction;
+	private final WatchService mWatchService;
+	private final Thread mThread;
+
+	/**
+	 * Starts watching.
+	 */
+	public FileWatcher(String fileName, long quietMillis, Runnable action) throws IOException
+	{
+		mFile = FileSystems.getDefault().getPath(fileName).toAbsolutePath().normalize();
+		mQuietMillis = quietMillis;
+		mAction = action;
+		mWatchService = FileSystems.getDefault().newWatchService();
+		mFile.getParent().register(mWatchService, StandardWatchEventKinds.ENTRY_CREATE,
+				StandardWatchEventKinds.ENTRY_MODIFY);
+		mThread = new Thread(new Runnable() {
+			public void run() {
+				watch();
+			}
+		}, MY_CLASS_TAG + "-" + mFile.getFileName());
+		mThread.setDaemon(true);
+		mThread.start();
+	}
+
+	private void watch()
+	{
+		try {
+			while (true) {
+				if (!concernsFile(mWatchService.take()))
+					continue;
+				// Wait for the writes to settle; other files of the directory, such as a log
+				// being written, do not count
+				long quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mQuietMillis);
+				long wait;
+				while ((wait = quietUntil - System.nanoTime()) > 0) {
+					WatchKey key = mWatchService.poll(wait, TimeUnit.NANOSECONDS);
+					if (key != null && concernsFile(key))
+						quietUntil = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(mQuietMillis);
+				}
+				try {
+					mAction.run();
+				} catch (RuntimeException e) {
+					System.err.println(MY_CLASS_TAG + ": " + e);
+				}
+			}
+		} catch (InterruptedException e) {
+			// stop() was called
+		} catch (ClosedWatchServiceException e) {
+			// stop() was called
+		}
+	}
+
+	private boolean concernsFile(WatchKey key)
+	{
+		boolean concerns = false;
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW)
+				concerns = true;
+			else if (mFile.getFileName().equals(event.context()))
+				concerns = true;
+		}
+		key.reset();
+		return concerns;
+	}
+
+	/**
+	 * Stops watching; an action already running is not interrupted.
+	 */
+	public void stop()
+	{
+		try {
+			mWatchService.close();
+		} catch (IOException e) {
+			System.err.println(MY_CLASS_TAG + ": " + e);
+		}
+	}
+}
@@ -0,0 +1,183 @@
+import java.lang.management.ManagementFactory;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import util.AccountPool;
+
+/**
+ * Run-time settings of the call generator.
+ * <br /><br />
+ * The positional command line of {@link CallGenerator} stays as it is; everything
+ * else is read from <code>-Dcallgen.&lt;name&gt;=&lt;value&gt;</code> system properties
+ * so a run can be tuned without changing the scripts that launch it.
+ */
+public class GeneratorConfig {
+
+	/**
+	 * Prefix shared by all call generator system properties.
+	 */
+	public static final String PREFIX = "callgen.";
+
+	public static String getString(String name, String dflt)
+	{
+		return System.getProperty(PREFIX + name, dflt);
+	}
+
+	public static int getInt(String name, int dflt)
+	{
+		String value = getString(name, null);
+		if (value == null || value.trim().isEmpty())
+			return dflt;
+		try {
+			return Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(PREFIX + name + ": not a number: " + value);
+		}
+	}
+
+	public static long getLong(String name, long dflt)
+	{
+		String value = getString(name, null);
+		if (value == null || value.trim().isEmpty())
+			return dflt;
+		try {
+			return Long.parseLong(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(PREFIX + name + ": not a number: " + value);
+		}
+	}
+
+	public static double getDouble(String name, double dflt)
+	{
+		String value = getString(name, null);
+		if (value == null || value.trim().isEmpty())
+			return dflt;
+		try {
+			return Double.parseDouble(value.trim());
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException(PREFIX + name + ": not a number: " + value);
+		}
+	}
+
+	public static boolean getBoolean(String name, boolean dflt)
+	{
+		String value = getString(name, null);
+		if (value == null || value.trim().isEmpty())
+			return dflt;
+		return Boolean.parseBoolean(value.trim());
+	}
+
+	/**
+	 * Identifies this run in file names: the time the generator started and its process ID,
+	 * e.g. <code>20240517-140322-4711</code>, so generators started in the same second on one
+	 * machine do not share files.
+	 */
+	public static String runId()
+	{
+		return RUN_ID;
+	}
+
+	private static final String RUN_ID = new SimpleDateFormat("yyyyMMdd-HHmmss", Locale.ROOT).format(new Date())
+			+ "-" + processId();
+
+	/**
+	 * This JVM's process ID, or a random number where the JVM does not give it away.
+	 */
+	private static String processId()
+	{
+		// "pid@host" on HotSpot and OpenJ9
+		String name = ManagementFactory.getRuntimeMXBean().getName();
+		int at = name.indexOf('@');
+		if (at > 0 && name.substring(0, at).matches("\\d+"))
+			return name.substring(0, at);
+		return Integer.toString(new Random().nextInt(1000000));
+	}
+
+	/**
+	 * A file name with every <code>{run}</code> replaced by the {@link #runId() run ID}, so
+	 * runs do not overwrite each other's files.
+	 */
+	public static String runFileName(String pattern)
+	{
+		return pattern.replace("{run}", RUN_ID);
+	}
+
+	/**
+	 * Number of independent sessions (each with its own SkypeKit runtime) to run side by side.
+	 */
+	public static int sessions()
+	{
+		return Math.max(1, getInt("sessions", 1));
+	}
+
+	/**
+	 * Port of the SkypeKit runtime used by the first session; session <i>i</i> uses
+	 * <code>basePort + i</code>.
+	 */
+	public static int basePort()
+	{
+		return getInt("basePort", util.MySession.PORT_NUM);
+	}
+
+	/**
+	 * Number of calls the engine keeps in flight; the engine never uses more than there are
+	 * logged-in accounts, so the default keeps every account busy.
+	 */
+	public static int inFlight()
+	{
+		return Math.max(1, getInt("inFlight", Integer.MAX_VALUE));
+	}
+
+	/**
+	 * Number of open-loop calls that may wait for a free session before further starts are shed;
+	 * by default as many as there are <code>sessions</code> in the pool.
+	 */
+	public static int maxPending(int sessions)
+	{
+		return Math.max(1, getInt("maxPending", sessions));
+	}
+
+	/**
+	 * Credentials file listing the accounts to call from (see
+	 * {@link AccountPool#readCredentials(String, int)}), or null to run
+	 * {@link #sessions()} sessions of the command-line account.
+	 */
+	public static String accountsFile()
+	{
+		return getString("accounts", null);
+	}
+
+	/**
+	 * Number of accounts logged in (and out) at the same time.
+	 */
+	public static int loginParallelism()
+	{
+		return Math.max(1, getInt("loginParallelism", 16));
+	}
+
+	/**
+	 * How calls pick an idle account: round_robin (default) or least_loaded.
+	 */
+	public static AccountPool.Policy accountPolicy()
+	{
+		return AccountPool.Policy.valueOf(getString("accountPolicy", "round_robin").trim().toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * Writes every <code>callgen.*</code> property of this run to the log so the run can be repeated.
+	 */
+	public static void dump(Logger log)
+	{
+		List<String> names = new ArrayList<String>(System.getProperties().stringPropertyNames());
+		Collections.sort(names);
+		for (String name : names) {
+			if (name.startsWith(PREFIX))
+				log.Write(String.format("Config %s = %s", name, System.getProperty(name)));
+		}
+	}
+}
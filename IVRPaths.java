@@ -4,7 +4,7 @@ import java.io.FileInputStream;
 import java.io.InputStreamReader;
 import java.util.ArrayList;
 import java.util.List;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import util.MySession;
 
@@ -23,6 +23,10 @@ import com.skype.api.Participant;
 public class IVRPaths {
 	
 	/*
+	 * Path file format: one path per line, every part in brackets, e.g. [3][8][1, 8, 3, 6].
+	 * Commas and white space between parts are ignored. Any other text outside the brackets,
+	 * or a bracket left open, is an error that stops the run at startup; versions before the
+	 * path catalog ignored such text.
 	 * 
 [1, 1, 1]
 [1, 1, 2]
@@ -84,164 +88,295 @@ public class IVRPaths {
 	 */
 	
 	
-	private List<Path> mIVRPaths = new ArrayList<Path>();
+	// How calls choose among the paths: the whole catalog or the branch named by callgen.subtree,
+	// drawn by weight or in coverage order (callgen.pathMode)
+	private volatile PathSelector mSelector = new PathCatalog("(empty)", new ArrayList<PathTemplate>()).all();
+	// When set (callgen.menuGraph), calls walk this graph instead of taking catalog paths
+	private volatile MenuGraph mGraph = null;
 	private Logger mLog = null;
+	// Reloads the path file when it changes (callgen.reload)
+	private FileWatcher mWatcher = null;
+	// Describes each path ID in the log the first time it is used
+	private PathDictionary mDictionary = null;
+	// Where chosen paths are recorded
+	private EventLog mEvents = EventLog.disabled();
+	// Values of the named path variables (callgen.feeds)
+	private DataFeeds mFeeds = new DataFeeds(new ArrayList<DataFeed>());
  
 	
 	public void Init(){
 		
-		int rand  = (int)(Math.random()*100);
-		MySession.myConsole.printf("Randon number for customer ID %d%n", rand);
-		
-		
-		int i = rand / 10;
-		int j = rand % 10;
-		
-		int[] customerID = {2,2,2,2,i,j};
-		int[] personID = {3,3,3,3,3,3,i,j};
-		
-		
-		
-		Path p1 = new Path();
-		p1.Add(customerID, 0);
-		int[] p11 = {1,1,1};
-		
-		p1.Add(p11, 8000);
-		mIVRPaths.add(p1);
-		
-		Path p2 = new Path();
-		p2.Add(customerID, 0);
-		int[] p22 = {1,1,2};
-		
-		p2.Add(p22, 8000);
-		mIVRPaths.add(p2);
-		
-		Path p3 = new Path();
-		p3.Add(customerID, 0);
-		int[] p33 = {2};
-		p3.Add(p33,  8000);
-		p3.Add(personID, 0);
-		int[] p333 = {8,1,1};
-		p3.Add(p333, 8000);
-		mIVRPaths.add(p3);
-		
+		int[] customerID = {2,2,2,2,PathTemplate.VAR_X,PathTemplate.VAR_Y};
+		int[] personID = {3,3,3,3,3,3,PathTemplate.VAR_X,PathTemplate.VAR_Y};
 		
+		List<PathTemplate> paths = new ArrayList<PathTemplate>();
+		paths.add(new PathTemplate(new int[][] {customerID, {1,1,1}}, new int[] {0, 8000}));
+		paths.add(new PathTemplate(new int[][] {customerID, {1,1,2}}, new int[] {0, 8000}));
+		paths.add(new PathTemplate(new int[][] {customerID, {2}, personID, {8,1,1}}, new int[] {0, 8000, 0, 8000}));
+		mSelector = new PathCatalog("(built-in)", paths).all();
 		
 	}
 
-	public Path GetRandomPath()
+	/**
+	 * Picks a path from the catalog, by weight or in coverage order, and binds its
+	 * customer-ID digits and named variables for this call. The call's log line holds the
+	 * path's {@link PathId ID} and the values bound; what the ID stands for is written once,
+	 * by the {@link PathDictionary}. With the {@link EventLog} on, the choice is recorded there
+	 * and the line is only written for a path with named variables, whose values the event log
+	 * does not hold. Safe to call from any number of
+	 * call threads as long as each call passes its own generator, see {@link RandomStreams#forCall(long)}.
+	 *
+	 * @throws IllegalStateException
+	 *  if the path needs a value from a data feed that is exhausted.
+	 */
+	public Path GetRandomPath(long callIndex, SplittableRandom rn) throws InterruptedException
 	{
-		
-		Random rn = new Random();
-		
-		int randomNum =  rn.nextInt(mIVRPaths.size());
-		MySession.myConsole.printf("Path number %d%n", randomNum);
-		//return (Path)mIVRPaths.get(randomNum);
-		mLog.Write(String.format("Path = %d",randomNum));
-		
-		String strPath = "Path: ";
-		Path path = (Path)mIVRPaths.get(randomNum);
-		PartialPath pp = null;
-		int[] digits = null;
-		for (int i =0; i < path.size(); i++)
-		{
-			strPath = strPath.concat(" [");
-			pp = path.GetPart(i);
-			digits = pp.getDigits();
-			for (int j=0; j < digits.length; j++)
-			{
-				if (j == 0)
-					strPath = strPath.concat(String.format("%d", digits[j]));
-				else
-					strPath = strPath.concat(String.format(",%d", digits[j]));
-					
+		Path path;
+		long id;
+		int x;
+		int y;
+		int[] variables = null;
+		String[] values = null;
+		MenuGraph graph = mGraph;
+		if (graph != null) {
+			int rand  = rn.nextInt(100);
+			x = rand / 10;
+			y = rand % 10;
+			MenuGraph.GraphPath walk = graph.walk(x, y, rn);
+			id = walk.getId();
+			if (mDictionary.firstUse(id))
+				mDictionary.describe(id, walk.getDescriptor());
+			mEvents.record(EventLog.TYPE_PATH_CHOSEN, rand, -1, callIndex, id);
+			path = walk;
+		}
+		else {
+			PathSelector selector = mSelector;
+			PathCatalog catalog = selector.getCatalog();
+			
+			int randomNum =  selector.select(callIndex, rn);
+			
+			int rand  = rn.nextInt(100);
+			x = rand / 10;
+			y = rand % 10;
+			
+			id = catalog.getId(randomNum);
+			if (mDictionary.firstUse(id))
+				mDictionary.describe(id, catalog.getDescriptor(randomNum));
+			mEvents.record(EventLog.TYPE_PATH_CHOSEN, rand, randomNum, callIndex, id);
+			if (catalog.getStore().hasNamedVariables(randomNum)) {
+				variables = catalog.getVariables(randomNum);
+				values = mFeeds.bind(variables, rn);
+				path = catalog.bind(randomNum, x, y, values);
+			}
+			else {
+				path = catalog.bind(randomNum, x, y);
 			}
-			strPath = strPath.concat("]");
 		}
-		mLog.Write(strPath);
+		// The event log already has the choice; the text line is only needed without it, or to
+		// keep the values bound to the path's variables
+		if (!mEvents.isEnabled() || values != null) {
+			StringBuilder line = new StringBuilder(64).append("Path ");
+			PathId.appendTo(line, id).append(" x=").append(x).append(" y=").append(y);
+			if (values != null) {
+				for (int code : variables)
+					line.append(' ').append(PathTemplate.variableName(code)).append('=').append(values[PathTemplate.variableIndex(code)]);
+			}
+			mLog.Write(line.toString());
+		}
 		return path;
 		
 	}
+
+	/**
+	 * Compiles the path file into the catalog that {@link #GetRandomPath(long, SplittableRandom)} draws from.
+	 * The catalog is then shared, unchanged, by all calls.
+	 * If <code>callgen.subtree</code> names a menu branch (e.g. <code>[3][8]</code>), calls only
+	 * take paths in that branch. <code>callgen.pathMode=coverage</code> calls every path in
+	 * turn instead of drawing them by weight, see {@link CoverageScheduler}.
+	 * <br /><br />
+	 * <code>fileName</code> may also name a catalog compiled by {@link CatalogFile}, which is
+	 * memory-mapped instead of parsed.
+	 * <br /><br />
+	 * With <code>callgen.reload=true</code> the file is watched for the rest of the run and
+	 * reloaded when it changes, see {@link #reload(String)}.
+	 *
+	 * @throws IllegalArgumentException
+	 *  if the file cannot be loaded or leaves no path to call; the run cannot go on without paths.
+	 */
 	public void InitFromFile(Logger log, String fileName)
 	{
 		mLog = log;
-		int rand  = (int)(Math.random()*100);
-		MySession.myConsole.printf("Randon number for customer ID %d%n", rand);
-		
-		int x = rand / 10;
-		int y = rand % 10;
-		
-		mIVRPaths.clear();
+		mDictionary = new PathDictionary(log);
 		try
 		{
-			  
-			  FileInputStream fstream = new FileInputStream(fileName);
-			  // Get the object of DataInputStream
-			  DataInputStream in = new DataInputStream(fstream);
-			  BufferedReader br = new BufferedReader(new InputStreamReader(in));
-			  String strLine;
-			  //Read File Line By Line
-			  String[] parts; 
-			  int index = 0;
-			  String[] digits = null;
-			  String temp = null;
-			  Path path = null;
-			  int[] numbers = null;
-			  int delay = 0;
-			  while ((strLine = br.readLine()) != null)   
-			  {
-				 
-				  MySession.myConsole.printf("line %s%n", strLine);
-				  if (strLine.isEmpty() == false)
-				  {
-					  
-					  path = new Path();
-					  parts = strLine.split("]");
-					  for (int i=0; i<parts.length; i++)
-					  {
-						  if (parts[i].isEmpty() == false)
-						  {
-							  MySession.myConsole.printf("part %d %s%n", i, parts[i]);
-							  index = parts[i].indexOf("[");
-							  if (index > -1)
-							  {
-								  temp = parts[i].substring(index + 1);
-								  digits = temp.split(",");
-								  numbers = new int[digits.length];
-								 
-								  for (int j=0; j< digits.length; j++)
-								  {
-									  temp = digits[j].trim();
-									  if (temp.compareTo("x") == 0)
-										  numbers[j] = x;
-									  else if (temp.compareTo("y")==0)
-										  numbers[j] = y;
-									  else  numbers[j] = Integer.parseInt(temp);
-									  
-								  }
-								  if (numbers.length > 1)
-									  delay = 0;
-								  else delay = 3000;
-								  path.Add(numbers, delay);
-							  }
-						  }
-							  
-					  }
-					  mIVRPaths.add(path);
-					
-				  }
-				  	  
-			  }
-			  //Close the input stream
-			  in.close();
-		 }
-		 catch (Exception e)
-		 {//Catch exception if any
-			  System.err.println("Error: " + e.getMessage());
-		 }
+			mSelector = loadSelector(fileName);
+		}
+		catch (Exception e)
+		{
+			throw new IllegalArgumentException("cannot load paths from " + fileName + ": " + e.getMessage(), e);
+		}
+		if (GeneratorConfig.getBoolean("reload", false))
+			watch(fileName);
 		
 	}
 
+	/**
+	 * Loads a path file or compiled catalog and builds the selector calls will use, without
+	 * installing it.
+	 *
+	 * @throws IllegalArgumentException
+	 *  if the file holds no path, or paths that cannot be called.
+	 */
+	private PathSelector loadSelector(String fileName) throws Exception
+	{
+		long start = System.currentTimeMillis();
+		PathCatalog catalog = CatalogFile.isCatalogFile(fileName) ? CatalogFile.map(fileName) : PathCatalog.load(fileName);
+		if (catalog.size() == 0)
+			throw new IllegalArgumentException("no paths");
+		String weighting = catalog.isWeighted() ? "weighted" : "uniform";
+		MenuTrie trie = catalog.peekTrie();
+		String shape = (trie == null) ? "mapped" :
+				String.format("%d menu nodes, depth %d", trie.getNodeCount(), trie.getMaxDepth());
+		shape += String.format(", %d ms", System.currentTimeMillis() - start);
+		MySession.myConsole.printf("Loaded %d paths from %s (%s, %s)%n", catalog.size(), fileName, weighting, shape);
+		mLog.Write(String.format("Loaded %d paths from %s (%s, %s)", catalog.size(), fileName, weighting, shape));
+
+		for (String name : catalog.getVariableNames()) {
+			if (!mFeeds.provides(name))
+				throw new IllegalArgumentException(fileName + " uses ${" + name + "}, which no data feed (callgen.feeds) provides");
+		}
+
+		PathCatalog.Selection selection = catalog.all();
+		String subtree = GeneratorConfig.getString("subtree", null);
+		if (subtree != null && !subtree.trim().isEmpty()) {
+			selection = catalog.select(subtree.trim());
+			MySession.myConsole.printf("Calling only subtree %s: %d paths%n", selection.getPrefix(), selection.size());
+			mLog.Write(String.format("Subtree %s: %d paths", selection.getPrefix(), selection.size()));
+		}
+		if (GeneratorConfig.getString("pathMode", "weighted").trim().equalsIgnoreCase("coverage")) {
+			CoverageScheduler coverage = new CoverageScheduler(selection, mLog);
+			MySession.myConsole.printf("Coverage mode: every path once per %d calls%n", coverage.size());
+			mLog.Write(String.format("Coverage mode: %d paths", coverage.size()));
+			return coverage;
+		}
+		return selection;
+	}
+
+	/**
+	 * Reloads the path file and swaps the new catalog in for the calls that start from now on.
+	 * <br /><br />
+	 * The file is parsed on the caller's thread while calls keep drawing from the old catalog;
+	 * the swap itself is a single volatile write. A call that has already taken its path
+	 * finishes it from the old catalog, which stays alive as long as such a path refers to it.
+	 * If the new file cannot be loaded, or leaves no path to call, the old catalog is kept.
+	 * In coverage mode, coverage starts again from zero on the new catalog.
+	 * <br /><br />
+	 * A compiled catalog should be replaced by renaming the new file over the old one rather
+	 * than rewriting it in place, so the pages the old catalog maps are not changed under it.
+	 *
+	 * @return whether the new catalog was installed.
+	 */
+	public boolean reload(String fileName)
+	{
+		PathSelector old = mSelector;
+		try
+		{
+			PathSelector selector = loadSelector(fileName);
+			mSelector = selector;
+			MySession.myConsole.printf("Reloaded %s: %d paths (was %d)%n", fileName, selector.getCatalog().size(), old.getCatalog().size());
+			mLog.Write(String.format("Reloaded %s: %d paths (was %d)", fileName, selector.getCatalog().size(), old.getCatalog().size()));
+			return true;
+		}
+		catch (Exception e)
+		{
+			System.err.println("Error: reload of " + fileName + " failed, keeping the previous paths: " + e.getMessage());
+			mLog.Write(String.format("Reload of %s failed, keeping %d paths: %s", fileName, old.getCatalog().size(), e.getMessage()));
+			return false;
+		}
+	}
+
+	/**
+	 * Reloads <code>fileName</code> in the background whenever it changes, once it has been
+	 * quiet for <code>callgen.reloadQuietMs</code> (default 500).
+	 */
+	private void watch(final String fileName)
+	{
+		try
+		{
+			mWatcher = new FileWatcher(fileName, GeneratorConfig.getLong("reloadQuietMs", 500), new Runnable() {
+				public void run() {
+					reload(fileName);
+				}
+			});
+			mLog.Write("Watching " + fileName + " for changes");
+		}
+		catch (Exception e)
+		{
+			System.err.println("Error: cannot watch " + fileName + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Stops watching the path file, if it is watched.
+	 */
+	public void stopWatching()
+	{
+		if (mWatcher != null) {
+			mWatcher.stop();
+			mWatcher = null;
+		}
+	}
+
+	/**
+	 * Makes calls walk a menu graph instead of taking paths from a path file, see {@link MenuGraph}.
+	 *
+	 * @throws IllegalArgumentException
+	 *  if the graph cannot be loaded; the run cannot go on without it.
+	 */
+	public void InitFromGraph(Logger log, String fileName)
+	{
+		mLog = log;
+		mDictionary = new PathDictionary(log);
+		try
+		{
+			MenuGraph graph = MenuGraph.load(fileName);
+			MySession.myConsole.printf("Loaded menu graph %s: %d nodes, %d edges%n", fileName, graph.getNodeCount(), graph.getEdgeCount());
+			log.Write(String.format("Loaded menu graph %s: %d nodes, %d edges", fileName, graph.getNodeCount(), graph.getEdgeCount()));
+			mGraph = graph;
+		}
+		catch (Exception e)
+		{
+			throw new IllegalArgumentException("cannot load menu graph " + fileName + ": " + e.getMessage(), e);
+		}
+	}
+
+	/**
+	 * Sets the data feeds that give named path variables their values; call before loading
+	 * the path file.
+	 */
+	public void setFeeds(DataFeeds feeds)
+	{
+		mFeeds = feeds;
+	}
+
+	/**
+	 * Sets where chosen paths are recorded.
+	 */
+	public void setEventLog(EventLog events)
+	{
+		mEvents = events;
+	}
+
+	public PathCatalog getCatalog()
+	{
+		return mSelector.getCatalog();
+	}
+
+	public PathSelector getSelector()
+	{
+		return mSelector;
+	}
+
 		
 
 
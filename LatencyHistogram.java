@@ -0,0 +1,188 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Latency histogram in the style of HdrHistogram: values are counted in log-linear buckets, so
+ * recording is a few shifts and one atomic increment, memory is fixed, and every value is kept
+ * with a relative error below 1% (two significant digits) from one microsecond up to
+ * {@link #MAX_VALUE_MICROS}.
+ * <br /><br />
+ * Any number of call threads may record into one histogram at the same time, and histograms
+ * recorded separately (per session, per run) can be merged with {@link #add(LatencyHistogram)}.
+ * <br /><br />
+ * Values are recorded in microseconds. Callers that know when something <i>should</i> have
+ * happened measure from that time rather than from when the work actually started, so a stall
+ * in the generator shows up as latency instead of silently delaying the measurement
+ * (coordinated omission); see {@link LatencyStats}.
+ */
+public class LatencyHistogram {
+
+	/** Largest value kept exactly; larger values are counted as this. One hour. */
+	public static final long MAX_VALUE_MICROS = TimeUnit.HOURS.toMicros(1);
+
+	// 2^8 sub-buckets per power of two: values within a bucket are at most 1/128 apart
+	private static final int SUB_BUCKET_HALF_COUNT_MAGNITUDE = 7;
+	private static final int SUB_BUCKET_HALF_COUNT = 1 << SUB_BUCKET_HALF_COUNT_MAGNITUDE;
+	private static final long SUB_BUCKET_MASK = (2L << SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+	private static final int COUNTS_LENGTH = countsIndex(MAX_VALUE_MICROS) + 1;
+
+	private final String mName;
+	private final AtomicLongArray mCounts = new AtomicLongArray(COUNTS_LENGTH);
+	private final AtomicLong mTotalCount = new AtomicLong();
+	private final AtomicLong mTotalMicros = new AtomicLong();
+	private final AtomicLong mMin = new AtomicLong(Long.MAX_VALUE);
+	private final AtomicLong mMax = new AtomicLong();
+	private final AtomicLong mClamped = new AtomicLong();
+
+	public LatencyHistogram(String name)
+	{
+		mName = name;
+	}
+
+	private static int countsIndex(long value)
+	{
+		int bucket = 64 - Long.numberOfLeadingZeros(value | SUB_BUCKET_MASK) - (SUB_BUCKET_HALF_COUNT_MAGNITUDE + 1);
+		int subBucket = (int)(value >>> bucket);
+		return ((bucket + 1) << SUB_BUCKET_HALF_COUNT_MAGNITUDE) + (subBucket - SUB_BUCKET_HALF_COUNT);
+	}
+
+	private static long lowestValueAt(int index)
+	{
+		int bucket = (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1;
+		int subBucket = (index & (SUB_BUCKET_HALF_COUNT - 1)) + SUB_BUCKET_HALF_COUNT;
+		if (bucket < 0) {
+			subBucket -= SUB_BUCKET_HALF_COUNT;
+			bucket = 0;
+		}
+		return (long)subBucket << bucket;
+	}
+
+	private static long highestValueAt(int index)
+	{
+		int bucket = Math.max(0, (index >> SUB_BUCKET_HALF_COUNT_MAGNITUDE) - 1);
+		return lowestValueAt(index) + (1L << bucket) - 1;
+	}
+
+	/**
+	 * Counts one value in microseconds. Negative values count as 0.
+	 */
+	public void recordMicros(long micros)
+	{
+		long value = Math.max(0, micros);
+		if (value > MAX_VALUE_MICROS) {
+			mClamped.incrementAndGet();
+			value = MAX_VALUE_MICROS;
+		}
+		mCounts.incrementAndGet(countsIndex(value));
+		mTotalCount.incrementAndGet();
+		mTotalMicros.addAndGet(value);
+		long min;
+		while (value < (min = mMin.get())) {
+			if (mMin.compareAndSet(min, value))
+				break;
+		}
+		long max;
+		while (value > (max = mMax.get())) {
+			if (mMax.compareAndSet(max, value))
+				break;
+		}
+	}
+
+	/**
+	 * Counts one value given in nanoseconds, e.g. the difference of two <code>System.nanoTime()</code> values.
+	 */
+	public void recordNanos(long nanos)
+	{
+		recordMicros(TimeUnit.NANOSECONDS.toMicros(nanos));
+	}
+
+	/**
+	 * Adds every value counted by <code>other</code> to this histogram.
+	 */
+	public void add(LatencyHistogram other)
+	{
+		for (int i = 0; i < COUNTS_LENGTH; i++) {
+			long count = other.mCounts.get(i);
+			if (count != 0)
+				mCounts.addAndGet(i, count);
+		}
+		mTotalCount.addAndGet(other.mTotalCount.get());
+		mTotalMicros.addAndGet(other.mTotalMicros.get());
+		mClamped.addAndGet(other.mClamped.get());
+		long min;
+		while (other.mMin.get() < (min = mMin.get())) {
+			if (mMin.compareAndSet(min, other.mMin.get()))
+				break;
+		}
+		long max;
+		while (other.mMax.get() > (max = mMax.get())) {
+			if (mMax.compareAndSet(max, other.mMax.get()))
+				break;
+		}
+	}
+
+	/**
+	 * Value in microseconds below or at which <code>percentile</code> percent of the recorded
+	 * values fall, to the histogram's precision; 0 if nothing was recorded.
+	 */
+	public long getValueAtPercentile(double percentile)
+	{
+		long total = mTotalCount.get();
+		if (total == 0)
+			return 0;
+		long wanted = Math.max(1, (long)Math.ceil(Math.min(100, percentile) / 100 * total));
+		long seen = 0;
+		for (int i = 0; i < COUNTS_LENGTH; i++) {
+			seen += mCounts.get(i);
+			if (seen >= wanted)
+				return Math.min(highestValueAt(i), getMaxMicros());
+		}
+		return getMaxMicros();
+	}
+
+	public String getName()
+	{
+		return mName;
+	}
+
+	public long getTotalCount()
+	{
+		return mTotalCount.get();
+	}
+
+	public long getMinMicros()
+	{
+		return (mTotalCount.get() == 0) ? 0 : mMin.get();
+	}
+
+	public long getMaxMicros()
+	{
+		return mMax.get();
+	}
+
+	public double getMeanMicros()
+	{
+		long total = mTotalCount.get();
+		return (total == 0) ? 0 : (double)mTotalMicros.get() / total;
+	}
+
+	/**
+	 * Number of values larger than {@link #MAX_VALUE_MICROS}, which were counted as that.
+	 */
+	public long getClampedCount()
+	{
+		return mClamped.get();
+	}
+
+	/**
+	 * One line summary in milliseconds, e.g. for the log.
+	 */
+	public String toString()
+	{
+		return String.format("%s: count = %d, min = %.3f, p50 = %.3f, p90 = %.3f, p99 = %.3f, p99.9 = %.3f, max = %.3f, mean = %.3f ms",
+				mName, getTotalCount(), getMinMicros() / 1000.0, getValueAtPercentile(50) / 1000.0,
+				getValueAtPercentile(90) / 1000.0, getValueAtPercentile(99) / 1000.0,
+				getValueAtPercentile(99.9) / 1000.0, getMaxMicros() / 1000.0, getMeanMicros() / 1000.0);
+	}
+}
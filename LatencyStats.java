@@ -0,0 +1,104 @@
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The latency histograms of a run, shared by every call on every session.
+ * <ul>
+ *   <li><b>ring-to-live</b>: from when the call should have started to the IVR answering. In
+ *       open-loop runs that is the call's scheduled time, so a call that waited for a session
+ *       or a thread is charged for the wait; in closed-loop runs it is the ring.</li>
+ *   <li><b>live-to-first-DTMF</b>: from the answer to the first digit's <code>sendDtmf</code> returning.</li>
+ *   <li><b>DTMF send</b>: per digit, from the time the digit was planned for to its
+ *       <code>sendDtmf</code> returning, so a late timer or a slow earlier digit counts against it.</li>
+ *   <li><b>call duration</b>: from the ring to the end of the call.</li>
+ * </ul>
+ * Percentiles are written to the log at the end of the run, and to
+ * <code>callgen.latencyFile</code> as CSV if that is set.
+ */
+public class LatencyStats {
+
+	/** Percentiles exported for every histogram. */
+	static final double[] PERCENTILES = { 0, 10, 25, 50, 75, 90, 95, 99, 99.5, 99.9, 99.99, 100 };
+
+	private final LatencyHistogram mRingToLive = new LatencyHistogram("ring-to-live");
+	private final LatencyHistogram mLiveToFirstDtmf = new LatencyHistogram("live-to-first-DTMF");
+	private final LatencyHistogram mDtmfSend = new LatencyHistogram("DTMF send");
+	private final LatencyHistogram mCallDuration = new LatencyHistogram("call duration");
+
+	public LatencyHistogram getRingToLive()
+	{
+		return mRingToLive;
+	}
+
+	public LatencyHistogram getLiveToFirstDtmf()
+	{
+		return mLiveToFirstDtmf;
+	}
+
+	public LatencyHistogram getDtmfSend()
+	{
+		return mDtmfSend;
+	}
+
+	public LatencyHistogram getCallDuration()
+	{
+		return mCallDuration;
+	}
+
+	public List<LatencyHistogram> getHistograms()
+	{
+		return Collections.unmodifiableList(Arrays.asList(mRingToLive, mLiveToFirstDtmf, mDtmfSend, mCallDuration));
+	}
+
+	/**
+	 * Adds the values of another run's (or session's) histograms to these.
+	 */
+	public void add(LatencyStats other)
+	{
+		mRingToLive.add(other.mRingToLive);
+		mLiveToFirstDtmf.add(other.mLiveToFirstDtmf);
+		mDtmfSend.add(other.mDtmfSend);
+		mCallDuration.add(other.mCallDuration);
+	}
+
+	/**
+	 * Writes one summary line per histogram to the log.
+	 */
+	public void report(Logger log)
+	{
+		for (LatencyHistogram histogram : getHistograms()) {
+			log.Write("Latency " + histogram);
+			if (histogram.getClampedCount() > 0)
+				log.Write(String.format("Latency %s: %d values above %d ms counted as %d ms", histogram.getName(),
+						histogram.getClampedCount(), LatencyHistogram.MAX_VALUE_MICROS / 1000, LatencyHistogram.MAX_VALUE_MICROS / 1000));
+		}
+	}
+
+	/**
+	 * Writes the percentile distribution of every histogram as CSV:
+	 * <code>histogram,percentile,value_ms,count</code>.
+	 */
+	public void export(String fileName) throws IOException
+	{
+		PrintWriter out = new PrintWriter(new OutputStreamWriter(new FileOutputStream(fileName), "US-ASCII"));
+		try {
+			out.println("histogram,percentile,value_ms,count");
+			for (LatencyHistogram histogram : getHistograms()) {
+				for (double percentile : PERCENTILES) {
+					out.printf(Locale.ROOT, "%s,%s,%.3f,%d%n", histogram.getName(), percentile,
+							histogram.getValueAtPercentile(percentile) / 1000.0, histogram.getTotalCount());
+				}
+			}
+			if (out.checkError())
+				throw new IOException("cannot write " + fileName);
+		} finally {
+			out.close();
+		}
+	}
+}
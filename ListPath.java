@@ -0,0 +1,41 @@
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A {@link Path} built part by part with {@link #Add(int[], int)}.
+ */
+public class ListPath extends Path {
+
+	private List<PartialPath> m_list = new ArrayList<PartialPath>();
+
+	public void Add(int [] digits, int delay)
+	{
+		PartialPath p = new PartialPath(digits, delay);
+		m_list.add(p);
+	}
+
+	public int size()
+	{
+		return m_list.size();
+	}
+
+	public PartialPath GetPart(int i)
+	{
+		return m_list.get(i);
+	}
+
+	public int getDelay(int i)
+	{
+		return GetPart(i).getDelay();
+	}
+
+	public int getDigitCount(int i)
+	{
+		return GetPart(i).getDigits().length;
+	}
+
+	public int getDigit(int i, int j)
+	{
+		return GetPart(i).getDigits()[j];
+	}
+}
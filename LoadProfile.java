@@ -0,0 +1,252 @@
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Load that changes over time: a sequence of segments, each giving the target value (calls per
+ * second or calls in flight, see {@link Mode}) as a function of the time since the run started.
+ * <br /><br />
+ * Profiles are written as segments separated by <code>;</code>, for example
+ * <code>ramp(0,20,10m);hold(20,1h);spike(20,60,10m,30s);ramp(20,0,5m)</code>:
+ * <ul>
+ *   <li><code>ramp(from,to,duration)</code> - linear change</li>
+ *   <li><code>hold(value,duration)</code> - constant plateau</li>
+ *   <li><code>soak(value,duration)</code> - same as hold, for multi-hour runs</li>
+ *   <li><code>step(from,to,steps,stepDuration)</code> - <code>steps</code> equal plateaus from <code>from</code> to <code>to</code></li>
+ *   <li><code>spike(base,peak,duration,spikeDuration)</code> - base load with a peak in the middle</li>
+ *   <li><code>sine(mean,amplitude,period,duration)</code> - sinusoidal load around a mean</li>
+ * </ul>
+ * Durations take a unit: <code>ms</code>, <code>s</code>, <code>m</code> or <code>h</code>.
+ */
+public class LoadProfile {
+
+	/**
+	 * What the profile's values mean.
+	 */
+	public enum Mode {
+		/** Call starts per second, open loop (see {@link ArrivalScheduler}). */
+		RATE,
+		/** Calls kept in flight, closed loop (see {@link CallEngine#runProfile}). */
+		CONCURRENCY
+	}
+
+	private static final Pattern SEGMENT = Pattern.compile("\\s*(\\w+)\\s*\\(([^)]*)\\)\\s*");
+	private static final Pattern DURATION = Pattern.compile("(\\d+(?:\\.\\d+)?)\\s*(ms|s|m|h)");
+
+	/**
+	 * One piece of a profile, starting at time 0 of its own.
+	 */
+	abstract static class Segment {
+		final long mDurationMillis;
+
+		Segment(long durationMillis)
+		{
+			if (durationMillis <= 0)
+				throw new IllegalArgumentException("segment duration must be positive");
+			mDurationMillis = durationMillis;
+		}
+
+		abstract double valueAt(long millis);
+	}
+
+	static class Ramp extends Segment {
+		private final double mFrom, mTo;
+
+		Ramp(double from, double to, long durationMillis)
+		{
+			super(durationMillis);
+			mFrom = from;
+			mTo = to;
+		}
+
+		double valueAt(long millis)
+		{
+			return mFrom + ((mTo - mFrom) * millis / mDurationMillis);
+		}
+	}
+
+	static class Step extends Segment {
+		private final double mFrom, mTo;
+		private final int mSteps;
+		private final long mStepMillis;
+
+		Step(double from, double to, int steps, long stepMillis)
+		{
+			super(steps * stepMillis);
+			if (steps < 1)
+				throw new IllegalArgumentException("step needs at least one step");
+			mFrom = from;
+			mTo = to;
+			mSteps = steps;
+			mStepMillis = stepMillis;
+		}
+
+		double valueAt(long millis)
+		{
+			int step = (int)Math.min(mSteps - 1, millis / mStepMillis);
+			return (mSteps == 1) ? mTo : mFrom + ((mTo - mFrom) * step / (mSteps - 1));
+		}
+	}
+
+	static class Spike extends Segment {
+		private final double mBase, mPeak;
+		private final long mSpikeStart, mSpikeEnd;
+
+		Spike(double base, double peak, long durationMillis, long spikeMillis)
+		{
+			super(durationMillis);
+			mBase = base;
+			mPeak = peak;
+			mSpikeStart = (durationMillis - spikeMillis) / 2;
+			mSpikeEnd = mSpikeStart + spikeMillis;
+		}
+
+		double valueAt(long millis)
+		{
+			return (millis >= mSpikeStart && millis < mSpikeEnd) ? mPeak : mBase;
+		}
+	}
+
+	static class Sine extends Segment {
+		private final double mMean, mAmplitude;
+		private final long mPeriodMillis;
+
+		Sine(double mean, double amplitude, long periodMillis, long durationMillis)
+		{
+			super(durationMillis);
+			if (periodMillis <= 0)
+				throw new IllegalArgumentException("sine period must be positive");
+			mMean = mean;
+			mAmplitude = amplitude;
+			mPeriodMillis = periodMillis;
+		}
+
+		double valueAt(long millis)
+		{
+			return mMean + (mAmplitude * Math.sin(2 * Math.PI * millis / mPeriodMillis));
+		}
+	}
+
+	private final String mSpec;
+	private final Mode mMode;
+	private final List<Segment> mSegments;
+	private final long mDurationMillis;
+
+	LoadProfile(String spec, Mode mode, List<Segment> segments)
+	{
+		if (segments.isEmpty())
+			throw new IllegalArgumentException("load profile has no segments");
+		mSpec = spec;
+		mMode = mode;
+		mSegments = Collections.unmodifiableList(new ArrayList<Segment>(segments));
+		long total = 0;
+		for (Segment segment : mSegments)
+			total += segment.mDurationMillis;
+		mDurationMillis = total;
+	}
+
+	/**
+	 * Parses a profile written in the syntax described above.
+	 */
+	public static LoadProfile parse(String spec, Mode mode)
+	{
+		List<Segment> segments = new ArrayList<Segment>();
+		for (String text : spec.split(";")) {
+			if (text.trim().isEmpty())
+				continue;
+			Matcher m = SEGMENT.matcher(text);
+			if (!m.matches())
+				throw new IllegalArgumentException("bad load profile segment: '" + text.trim() + "'");
+			String kind = m.group(1).toLowerCase(Locale.ROOT);
+			String[] a = m.group(2).split(",");
+			for (int i = 0; i < a.length; i++)
+				a[i] = a[i].trim();
+
+			if (kind.equals("ramp") && a.length == 3)
+				segments.add(new Ramp(number(a[0]), number(a[1]), duration(a[2])));
+			else if ((kind.equals("hold") || kind.equals("soak")) && a.length == 2)
+				segments.add(new Ramp(number(a[0]), number(a[0]), duration(a[1])));
+			else if (kind.equals("step") && a.length == 4)
+				segments.add(new Step(number(a[0]), number(a[1]), (int)number(a[2]), duration(a[3])));
+			else if (kind.equals("spike") && a.length == 4)
+				segments.add(new Spike(number(a[0]), number(a[1]), duration(a[2]), duration(a[3])));
+			else if (kind.equals("sine") && a.length == 4)
+				segments.add(new Sine(number(a[0]), number(a[1]), duration(a[2]), duration(a[3])));
+			else
+				throw new IllegalArgumentException("bad load profile segment: '" + text.trim() + "'");
+		}
+		return new LoadProfile(spec, mode, segments);
+	}
+
+	/**
+	 * The profile given by <code>callgen.profile</code> and <code>callgen.profileMode</code>
+	 * (rate or concurrency, default rate), or null if there is none.
+	 */
+	public static LoadProfile fromConfig()
+	{
+		String spec = GeneratorConfig.getString("profile", null);
+		if (spec == null || spec.trim().isEmpty())
+			return null;
+		Mode mode = Mode.valueOf(GeneratorConfig.getString("profileMode", "rate").trim().toUpperCase(Locale.ROOT));
+		return parse(spec, mode);
+	}
+
+	private static double number(String text)
+	{
+		try {
+			return Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("not a number in load profile: '" + text + "'");
+		}
+	}
+
+	static long duration(String text)
+	{
+		Matcher m = DURATION.matcher(text.toLowerCase(Locale.ROOT));
+		if (!m.matches())
+			throw new IllegalArgumentException("bad duration in load profile: '" + text + "' (use ms, s, m or h)");
+		double value = Double.parseDouble(m.group(1));
+		String unit = m.group(2);
+		if (unit.equals("h"))
+			value *= 3600000;
+		else if (unit.equals("m"))
+			value *= 60000;
+		else if (unit.equals("s"))
+			value *= 1000;
+		return (long)value;
+	}
+
+	/**
+	 * Target value at <code>millis</code> after the start of the run; never negative,
+	 * and the last segment's final value once the profile has run out.
+	 */
+	public double valueAt(long millis)
+	{
+		long offset = Math.max(0, millis);
+		for (Segment segment : mSegments) {
+			if (offset < segment.mDurationMillis)
+				return Math.max(0, segment.valueAt(offset));
+			offset -= segment.mDurationMillis;
+		}
+		Segment last = mSegments.get(mSegments.size() - 1);
+		return Math.max(0, last.valueAt(last.mDurationMillis));
+	}
+
+	public long getDurationMillis()
+	{
+		return mDurationMillis;
+	}
+
+	public Mode getMode()
+	{
+		return mMode;
+	}
+
+	public String toString()
+	{
+		return mMode + " " + mSpec;
+	}
+}
@@ -0,0 +1,132 @@
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+
+/**
+ * Time stamps for the log: wall-clock time in nanoseconds, taken from the monotonic
+ * {@link System#nanoTime()} clock anchored to the wall clock once, when the clock is created.
+ * <br /><br />
+ * Reading the clock costs one <code>nanoTime()</code> call and never goes backwards, so the
+ * order and spacing of log lines (e.g. of the digits of a DTMF sequence) is exact even if the
+ * system clock is stepped during a run. The price is that a long run drifts from the wall
+ * clock by whatever the system clock is adjusted by in the meantime.
+ * <br /><br />
+ * A {@link Formatter} turns stamps into text such as <code>2024/05/17 14:03:22.041</code> or
+ * <code>2024/05/17 14:03:22.041337</code>, redoing the date and time only when the second
+ * changes, so formatting allocates nothing and parses nothing.
+ */
+public class LogClock {
+
+	public enum Resolution {
+		SECONDS, MILLIS, MICROS
+	}
+
+	/** The clock of the text and binary logs, so their stamps line up. */
+	public static final LogClock SHARED = new LogClock();
+
+	private final long mWallAnchorNanos;
+	private final long mNanoAnchor;
+
+	public LogClock()
+	{
+		mNanoAnchor = System.nanoTime();
+		mWallAnchorNanos = System.currentTimeMillis() * 1000000L;
+	}
+
+	/**
+	 * Nanoseconds since the epoch.
+	 */
+	public long nanos()
+	{
+		return mWallAnchorNanos + (System.nanoTime() - mNanoAnchor);
+	}
+
+	/**
+	 * The time on this clock, in nanoseconds since the epoch, of a <code>System.nanoTime()</code> reading.
+	 */
+	public long toEpochNanos(long nanoTime)
+	{
+		return mWallAnchorNanos + (nanoTime - mNanoAnchor);
+	}
+
+	/**
+	 * The log's resolution, <code>callgen.logTimeResolution</code>: seconds, millis (default)
+	 * or micros.
+	 */
+	public static Resolution configuredResolution()
+	{
+		return Resolution.valueOf(GeneratorConfig.getString("logTimeResolution", "millis").trim().toUpperCase(Locale.ROOT));
+	}
+
+	/**
+	 * Formats stamps as <code>yyyy/MM/dd HH:mm:ss</code> plus the fraction of the second the
+	 * resolution asks for. Not thread-safe; meant for the one thread that writes the log.
+	 */
+	public static class Formatter {
+		private static final String PATTERN = "yyyy/MM/dd HH:mm:ss";
+
+		private final SimpleDateFormat mDateFormat = new SimpleDateFormat(PATTERN);
+		private final Resolution mResolution;
+		private final char[] mChars;
+		private final int mSecondLength;
+		private long mSecond = Long.MIN_VALUE;
+
+		public Formatter(Resolution resolution)
+		{
+			mResolution = resolution;
+			mSecondLength = PATTERN.length();
+			int fraction = (resolution == Resolution.MILLIS) ? 4 : (resolution == Resolution.MICROS) ? 7 : 0;
+			mChars = new char[mSecondLength + fraction];
+		}
+
+		/**
+		 * Formats <code>epochNanos</code> into {@link #chars()}.
+		 *
+		 * @return the number of characters.
+		 */
+		public int format(long epochNanos)
+		{
+			long second = Math.floorDiv(epochNanos, 1000000000L);
+			if (second != mSecond) {
+				String text = mDateFormat.format(new Date(second * 1000));
+				text.getChars(0, mSecondLength, mChars, 0);
+				mSecond = second;
+			}
+			int nanos = (int)(epochNanos - second * 1000000000L);
+			switch (mResolution) {
+			case MILLIS:
+				mChars[mSecondLength] = '.';
+				digits(nanos / 1000000, 3);
+				break;
+			case MICROS:
+				mChars[mSecondLength] = '.';
+				digits(nanos / 1000, 6);
+				break;
+			default:
+				break;
+			}
+			return mChars.length;
+		}
+
+		private void digits(int value, int count)
+		{
+			for (int i = mChars.length - 1; i > mChars.length - 1 - count; i--) {
+				mChars[i] = (char)('0' + value % 10);
+				value /= 10;
+			}
+		}
+
+		/**
+		 * The text of the last stamp formatted; overwritten by the next.
+		 */
+		public char[] chars()
+		{
+			return mChars;
+		}
+
+		public String toString(long epochNanos)
+		{
+			return new String(mChars, 0, format(epochNanos));
+		}
+	}
+}
@@ -0,0 +1,266 @@
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The ring buffer behind {@link Logger} and {@link EventLog}: any number of threads put
+ * entries in, one background thread takes them out in order and hands them to a
+ * {@link Handler}, which writes them out.
+ * <br /><br />
+ * The ring only hands out sequence numbers; the entries themselves live in the owner's
+ * preallocated arrays, at index {@link #slot(long)}. A writer {@link #claim() claims} a sequence
+ * number with a compare-and-set on a shared counter, fills its slot and {@link #publish(long)
+ * publishes} it by storing the sequence number in the slot's entry of a per-slot array. There
+ * are no locks on the way in.
+ * <br /><br />
+ * What a writer does when the ring is full is a {@link FullPolicy}; how the background
+ * thread waits for entries, a {@link WaitStrategy}. Both are read from
+ * <code>callgen.logFull</code> and <code>callgen.logWait</code> by {@link #fromConfig(String, int)}.
+ */
+public class LogRing {
+
+	public enum WaitStrategy {
+		/** Park until a writer wakes the thread up. */
+		BLOCK,
+		/** Poll every {@link LogRing#SLEEP_NANOS} ns. */
+		SLEEP,
+		YIELD,
+		/** Busy-spin; lowest latency, one busy core. */
+		SPIN
+	}
+
+	public enum FullPolicy {
+		/** Drop the entry and count it. */
+		DROP,
+		/** Wait for room (backpressure). */
+		BLOCK
+	}
+
+	/**
+	 * Writes entries out; called on the ring's background thread only.
+	 */
+	public interface Handler {
+		/** Writes out the entry in <code>slot</code>. */
+		void onEntry(int slot);
+
+		/** Called after every batch of entries. */
+		void onBatch();
+
+		/** Called when the ring has run out of entries, e.g. to flush. */
+		void onIdle();
+	}
+
+	/** Most entries handed out between two {@link Handler#onBatch()} calls. */
+	static final int BATCH_SIZE = 1024;
+	static final long SLEEP_NANOS = 100000;
+	// Set in mClaimed by close(): no slot is claimed after it, so the count is final
+	private static final long CLOSED = 1L << 62;
+
+	private final AtomicLongArray mPublished;
+	private final int mMask;
+	private final AtomicLong mClaimed = new AtomicLong();
+	private volatile long mConsumed = 0;
+	private final WaitStrategy mWaitStrategy;
+	private final FullPolicy mFullPolicy;
+	private final AtomicLong mDropped = new AtomicLong();
+	private volatile boolean mRunning = false;
+	private volatile boolean mDrainerParked = false;
+	private Thread mDrainer = null;
+
+	/**
+	 * @param minSize
+	 *  Number of slots; rounded up to a power of two.
+	 */
+	public LogRing(int minSize, WaitStrategy waitStrategy, FullPolicy fullPolicy)
+	{
+		int size = 1;
+		while (size < minSize)
+			size <<= 1;
+		mPublished = new AtomicLongArray(size);
+		for (int i = 0; i < size; i++)
+			mPublished.set(i, -1);
+		mMask = size - 1;
+		mWaitStrategy = waitStrategy;
+		mFullPolicy = fullPolicy;
+	}
+
+	/**
+	 * A ring of <code>callgen.&lt;sizeProperty&gt;</code> slots, with the configured wait
+	 * strategy and full policy.
+	 */
+	public static LogRing fromConfig(String sizeProperty, int defaultSize)
+	{
+		return new LogRing(GeneratorConfig.getInt(sizeProperty, defaultSize),
+				WaitStrategy.valueOf(GeneratorConfig.getString("logWait", "block").trim().toUpperCase(Locale.ROOT)),
+				FullPolicy.valueOf(GeneratorConfig.getString("logFull", "drop").trim().toUpperCase(Locale.ROOT)));
+	}
+
+	/**
+	 * Number of slots.
+	 */
+	public int size()
+	{
+		return mMask + 1;
+	}
+
+	public int slot(long seq)
+	{
+		return (int)seq & mMask;
+	}
+
+	/**
+	 * Starts the background thread.
+	 */
+	public void start(String threadName, final Handler handler)
+	{
+		mRunning = true;
+		mDrainer = new Thread(new Runnable() {
+			public void run() {
+				drain(handler);
+			}
+		}, threadName);
+		mDrainer.setDaemon(true);
+		mDrainer.start();
+	}
+
+	/**
+	 * Claims the next slot. Returns without waiting unless the ring is full and the policy is
+	 * {@link FullPolicy#BLOCK}.
+	 *
+	 * @return the sequence number, or -1 if the entry was dropped (the ring is full, or closed).
+	 */
+	public long claim()
+	{
+		if (!mRunning) {
+			mDropped.incrementAndGet();
+			return -1;
+		}
+		while (true) {
+			long seq = mClaimed.get();
+			if ((seq & CLOSED) != 0) {
+				mDropped.incrementAndGet();
+				return -1;
+			}
+			if (seq - mConsumed > mMask) {
+				if (mFullPolicy == FullPolicy.DROP) {
+					mDropped.incrementAndGet();
+					return -1;
+				}
+				wakeDrainer();
+				LockSupport.parkNanos(SLEEP_NANOS);
+				continue;
+			}
+			if (mClaimed.compareAndSet(seq, seq + 1))
+				return seq;
+		}
+	}
+
+	/**
+	 * Hands a claimed and filled slot to the background thread.
+	 */
+	public void publish(long seq)
+	{
+		// A volatile write, so the drainer cannot park between it and the check below unseen
+		mPublished.set(slot(seq), seq);
+		if (mDrainerParked)
+			wakeDrainer();
+	}
+
+	private void wakeDrainer()
+	{
+		if (mDrainer != null)
+			LockSupport.unpark(mDrainer);
+	}
+
+	private void drain(Handler handler)
+	{
+		long next = 0;
+		boolean dirty = false;
+		while (true) {
+			int n = 0;
+			while (n < BATCH_SIZE && mPublished.get(slot(next)) == next) {
+				handler.onEntry(slot(next));
+				next++;
+				n++;
+			}
+			if (n > 0) {
+				mConsumed = next;
+				dirty = true;
+				handler.onBatch();
+				continue;
+			}
+			// Once closed, every slot claimed before is drained; none can be claimed after
+			if (mClaimed.get() == (next | CLOSED))
+				break;
+			if (dirty) {
+				handler.onIdle();
+				dirty = false;
+				continue;
+			}
+			await();
+		}
+		handler.onBatch();
+		handler.onIdle();
+	}
+
+	private void await()
+	{
+		switch (mWaitStrategy) {
+		case BLOCK:
+			mDrainerParked = true;
+			// Check again now that writers will wake us up
+			long next = mConsumed;
+			if (mRunning && mPublished.get(slot(next)) != next)
+				LockSupport.parkNanos(this, 10 * 1000000L);
+			mDrainerParked = false;
+			break;
+		case SLEEP:
+			LockSupport.parkNanos(SLEEP_NANOS);
+			break;
+		case YIELD:
+			Thread.yield();
+			break;
+		case SPIN:
+			break;
+		}
+	}
+
+	/**
+	 * Number of entries dropped so far.
+	 */
+	public long getDroppedCount()
+	{
+		return mDropped.get();
+	}
+
+	public boolean isRunning()
+	{
+		return mRunning;
+	}
+
+	/**
+	 * Lets the background thread hand out every entry claimed so far, then stops it. Entries
+	 * claimed after this are dropped.
+	 */
+	public void close()
+	{
+		mRunning = false;
+		// A writer may have passed the check in claim() before mRunning changed: close the
+		// counter itself, so that its claim either lands before the last entry the drainer
+		// waits for or fails and is counted as dropped
+		while (true) {
+			long claimed = mClaimed.get();
+			if ((claimed & CLOSED) != 0 || mClaimed.compareAndSet(claimed, claimed | CLOSED))
+				break;
+		}
+		wakeDrainer();
+		if (mDrainer != null) {
+			try {
+				mDrainer.join();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+}
@@ -1,60 +1,203 @@
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
-import java.text.DateFormat;
-import java.text.SimpleDateFormat;
-import java.util.Date;
-
+import java.io.Writer;
 
+/**
+ * The run log, <code>Logger-&lt;run&gt;.txt</code> by default; see {@link RollingLogFile} for
+ * naming, rotation and compression. With <code>callgen.logSink=mapped</code> it is written to
+ * memory-mapped segments instead, which keep every line written so far if the JVM is killed
+ * and can be followed from another process; see {@link MappedLogFile}.
+ * <br /><br />
+ * {@link #Write(String)} never touches the file: it stamps the line with the time, read from
+ * a {@link LogClock}, and puts it
+ * in a preallocated ring buffer, which a single background thread drains into the file in
+ * batches. Call threads therefore never wait on the disk, however slow it is, and lines from
+ * different threads never interleave.
+ * <br /><br />
+ * Writers claim ring slots with a compare-and-set on a shared counter and publish them with a
+ * per-slot sequence number; there are no locks on the way in, see {@link LogRing}. What happens
+ * when the ring is full is set by <code>callgen.logFull</code>:
+ * <ul>
+ * <li><code>drop</code> (default): the line is dropped and counted; the count is written to
+ * the log as soon as there is room again, and at the end;</li>
+ * <li><code>block</code>: the writer waits for room (backpressure), so no line is lost but a
+ * disk that cannot keep up slows the calls down.</li>
+ * </ul>
+ * How the background thread waits for lines is set by <code>callgen.logWait</code>:
+ * <code>block</code> (default; parks, and writers wake it up), <code>sleep</code> (polls every
+ * 100 &micro;s), <code>yield</code> or <code>spin</code> (lowest latency, at the cost of a
+ * busy core). <code>callgen.logBuffer</code> is the number of slots (default 65536, rounded up
+ * to a power of two).
+ * <br /><br />
+ * Lines are stamped to the millisecond by default; <code>callgen.logTimeResolution</code>
+ * may ask for seconds or microseconds instead.
+ */
 public class Logger {
-	  
-	private  BufferedWriter bufferedWriter = null;
-	
+
+	private static final String LINE_SEPARATOR = System.getProperty("line.separator");
+
+	private Writer mWriter = null;
+	// mWriter, if it is a rolling file
+	private RollingLogFile mRollingFile = null;
+	private String mFileName = null;
+	private LogRing mRing = null;
+
+	// Per ring slot: the line and its time stamp, in epoch nanoseconds from mClock
+	private String[] mLines;
+	private long[] mTimes;
+
+	private final LogClock mClock = LogClock.SHARED;
+	// Used by the ring's thread only
+	private LogClock.Formatter mFormatter;
+	private long mDroppedReported = 0;
+	// Lines lost because the writer failed; the first failure goes to the console
+	private volatile long mFailed = 0;
+	private IOException mError = null;
+
 	public void Init()
 	{
 		try {
-	            
-	            //Construct the BufferedWriter object
-	            bufferedWriter = new BufferedWriter(new FileWriter("Logger.txt"));
-	            
-	             
-	       
-	        } 
-	        catch (Exception ex) 
-	        {
-	            ex.printStackTrace();
-	        }
-	
-	} 
-	private String getDateTime() {
-        DateFormat dateFormat = new SimpleDateFormat("yyyy/MM/dd HH:mm:ss");
-        Date date = new Date();
-        return dateFormat.format(date);
-    }
+			mFormatter = new LogClock.Formatter(LogClock.configuredResolution());
+			LogRing ring = LogRing.fromConfig("logBuffer", 65536);
+			mLines = new String[ring.size()];
+			mTimes = new long[ring.size()];
+
+			String sink = GeneratorConfig.getString("logSink", "file").trim();
+			if (sink.equals("mapped")) {
+				MappedLogFile mapped = MappedLogFile.fromConfig();
+				mWriter = mapped;
+				mFileName = mapped.getFileName();
+			} else if (sink.equals("file")) {
+				// Rotated by the ring's thread, between lines, so writers never wait for it
+				mRollingFile = RollingLogFile.fromConfig();
+				mWriter = mRollingFile;
+				mFileName = mRollingFile.getFileName();
+			} else {
+				throw new IllegalArgumentException(GeneratorConfig.PREFIX + "logSink: file or mapped, not " + sink);
+			}
+
+			ring.start("Logger", new LogRing.Handler() {
+				public void onEntry(int slot) {
+					writeLine(mTimes[slot], mLines[slot]);
+					mLines[slot] = null;
+				}
+
+				public void onBatch() {
+					reportDropped();
+				}
+
+				public void onIdle() {
+					flush();
+				}
+			});
+			mRing = ring;
+		}
+		catch (Exception ex)
+		{
+			ex.printStackTrace();
+		}
+	}
+
+	/**
+	 * Queues a line for the log. Safe to call from any number of threads; returns without
+	 * waiting unless the ring is full and <code>callgen.logFull=block</code>.
+	 */
 	public void Write(String line)
+	{
+		long time = mClock.nanos();
+		long seq = mRing.claim();
+		if (seq < 0)
+			return;
+		int slot = mRing.slot(seq);
+		mLines[slot] = line;
+		mTimes[slot] = time;
+		mRing.publish(seq);
+	}
+
+	private void reportDropped()
+	{
+		long dropped = mRing.getDroppedCount();
+		if (dropped != mDroppedReported) {
+			writeLine(mClock.nanos(), String.format("Logger: %d lines dropped, log buffer full", dropped - mDroppedReported));
+			mDroppedReported = dropped;
+		}
+	}
+
+	private void writeLine(long time, String line)
+	{
+		if (mRollingFile != null) {
+			try {
+				mRollingFile.rollIfDue();
+			} catch (IOException e) {
+				writeFailed(e);
+			}
+		}
+		try {
+			mWriter.write(mFormatter.chars(), 0, mFormatter.format(time));
+			mWriter.write(", ");
+			mWriter.write(line);
+			mWriter.write(LINE_SEPARATOR);
+		} catch (IOException e) {
+			mFailed++;
+			writeFailed(e);
+		}
+	}
+
+	private void flush()
 	{
 		try {
-			bufferedWriter.write(String.format("%s, %s",getDateTime(), line));
-			bufferedWriter.newLine();
+			mWriter.flush();
 		} catch (IOException e) {
-			// TODO Auto-generated catch block
-			e.printStackTrace();
+			writeFailed(e);
 		}
 	}
-	public void Close() 
+
+	private void writeFailed(IOException e)
+	{
+		if (mError == null) {
+			mError = e;
+			System.err.println("Logger: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Name of the file lines are written to (the first segment, for a mapped log).
+	 */
+	public String getFileName()
+	{
+		return mFileName;
+	}
+
+	/**
+	 * Number of lines dropped because the ring was full.
+	 */
+	public long getDroppedCount()
+	{
+		return mRing.getDroppedCount();
+	}
+
+	/**
+	 * Number of lines lost because writing them to the file failed.
+	 */
+	public long getFailedCount()
+	{
+		return mFailed;
+	}
+
+	/**
+	 * Writes out every line queued so far and closes the file. Lines written after this are dropped.
+	 */
+	public synchronized void Close()
 	{
-		if (bufferedWriter != null) {
+		if (mWriter != null) {
+			mRing.close();
 			try {
-				bufferedWriter.flush();
-				 bufferedWriter.close();
+				mWriter.close();
 			} catch (IOException e) {
-				// TODO Auto-generated catch block
-				e.printStackTrace();
+				writeFailed(e);
 			}
-           
+			if (mFailed > 0)
+				System.err.printf("Logger: %d lines could not be written to %s%n", mFailed, mFileName);
+			mWriter = null;
 		}
-           
 	}
-	  
-	  
 }
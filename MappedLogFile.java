@@ -0,0 +1,233 @@
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * A log written into memory-mapped segment files, so that every complete line is in the
+ * operating system's page cache the moment it is written: it survives the JVM being killed,
+ * and {@link MappedLogReader} in another process can follow it while it grows.
+ * <br /><br />
+ * The log is a series of fixed-size segments, <code>&lt;name&gt;.00000.mlog</code>,
+ * <code>.00001.mlog</code>, ..., each mapped whole when it is started. Writing a line encodes it
+ * as UTF-8 straight into the mapping and, at its <code>'\n'</code>, stores the end of the line
+ * in the segment's header: no system calls, no flushing, nothing buffered in the JVM. The
+ * kernel is entered only when a page is first touched and when a segment is full, to seal it
+ * and map the next one. A line that does not fit in what is left of a segment is moved whole
+ * to the next one.
+ * <br /><br />
+ * Segment layout, little-endian: a {@link #HEADER_BYTES}-byte header (magic <code>IVRL</code>,
+ * version, committed end as a <code>long</code>, flags, segment number), then UTF-8 text up to
+ * the committed end. Bytes past it are unused or belong to a line not yet complete. A segment
+ * is {@link #FLAG_SEALED sealed} when it is full and {@link #FLAG_CLOSED closed} as well when it
+ * is the last of a log closed normally; a log whose last segment is not closed was cut short.
+ * <br /><br />
+ * This protects against the process dying, not the machine: the page cache reaches the disk
+ * when the kernel writes it back, and segments are only forced to disk when they are sealed.
+ * Not thread-safe: meant for the one thread that writes the log.
+ */
+public class MappedLogFile extends Writer {
+
+	public static final String MY_CLASS_TAG = "MappedLogFile";
+
+	/** "IVRL" */
+	public static final int MAGIC = 0x4956524C;
+	public static final int VERSION = 1;
+	public static final int HEADER_BYTES = 64;
+
+	// Header fields
+	static final int MAGIC_OFFSET = 0;
+	static final int VERSION_OFFSET = 4;
+	static final int COMMITTED_OFFSET = 8;
+	static final int FLAGS_OFFSET = 16;
+	static final int SEGMENT_OFFSET = 20;
+
+	/** No more lines will be written to the segment; the log goes on in the next one, unless also closed. */
+	public static final int FLAG_SEALED = 1;
+	/** The log was closed; this is its last segment. */
+	public static final int FLAG_CLOSED = 2;
+
+	private final String mBaseName;
+	private final int mSegmentBytes;
+
+	private MappedByteBuffer mBuffer = null;
+	private int mSegment = -1;
+	// End of the last complete line in mBuffer
+	private int mCommitted;
+	// See fence()
+	private volatile int mFence;
+
+	/**
+	 * Maps the first segment.
+	 *
+	 * @param baseName
+	 *  Segment files are <code>baseName.00000.mlog</code> and on.
+	 * @param segmentBytes
+	 *  Size of a segment file, header included.
+	 */
+	public MappedLogFile(String baseName, int segmentBytes) throws IOException
+	{
+		if (segmentBytes < HEADER_BYTES + 4096)
+			throw new IllegalArgumentException("segment of " + segmentBytes + " bytes is too small");
+		mBaseName = baseName;
+		mSegmentBytes = segmentBytes;
+		nextSegment();
+	}
+
+	/**
+	 * The text log of this run as mapped segments: <code>callgen.logFile</code> (default
+	 * <code>Logger-{run}</code>, see {@link GeneratorConfig#runFileName(String)}), in segments of
+	 * <code>callgen.logSegmentMB</code> megabytes (default 64).
+	 */
+	public static MappedLogFile fromConfig() throws IOException
+	{
+		int segmentMB = GeneratorConfig.getInt("logSegmentMB", 64);
+		if (segmentMB < 1 || segmentMB > 1024)
+			throw new IllegalArgumentException(GeneratorConfig.PREFIX + "logSegmentMB: 1 to 1024, not " + segmentMB);
+		return new MappedLogFile(GeneratorConfig.runFileName(GeneratorConfig.getString("logFile", "Logger-{run}")),
+				segmentMB << 20);
+	}
+
+	public static String segmentName(String baseName, int segment)
+	{
+		return String.format("%s.%05d.mlog", baseName, segment);
+	}
+
+	/**
+	 * Name of the first segment, which is where a reader starts.
+	 */
+	public String getFileName()
+	{
+		return segmentName(mBaseName, 0);
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException
+	{
+		int end = off + len;
+		for (int i = off; i < end; i++)
+			i = put(cbuf[i], (i + 1 < end) ? cbuf[i + 1] : 0, i);
+	}
+
+	public void write(String str, int off, int len) throws IOException
+	{
+		int end = off + len;
+		for (int i = off; i < end; i++)
+			i = put(str.charAt(i), (i + 1 < end) ? str.charAt(i + 1) : 0, i);
+	}
+
+	/**
+	 * Encodes the character at index <code>i</code>, followed by <code>next</code>, as UTF-8.
+	 *
+	 * @return the index of the last character used: <code>i + 1</code> for a surrogate pair.
+	 */
+	private int put(char c, char next, int i) throws IOException
+	{
+		if (mBuffer.remaining() < 4)
+			nextSegment();
+		MappedByteBuffer b = mBuffer;
+		if (c < 0x80) {
+			b.put((byte)c);
+			if (c == '\n')
+				commit();
+		} else if (c < 0x800) {
+			b.put((byte)(0xC0 | (c >> 6))).put((byte)(0x80 | (c & 0x3F)));
+		} else if (Character.isHighSurrogate(c) && Character.isLowSurrogate(next)) {
+			int cp = Character.toCodePoint(c, next);
+			b.put((byte)(0xF0 | (cp >> 18))).put((byte)(0x80 | ((cp >> 12) & 0x3F)))
+					.put((byte)(0x80 | ((cp >> 6) & 0x3F))).put((byte)(0x80 | (cp & 0x3F)));
+			return i + 1;
+		} else if (Character.isSurrogate(c)) {
+			b.put((byte)'?');
+		} else {
+			b.put((byte)(0xE0 | (c >> 12))).put((byte)(0x80 | ((c >> 6) & 0x3F))).put((byte)(0x80 | (c & 0x3F)));
+		}
+		return i;
+	}
+
+	private void commit()
+	{
+		mCommitted = mBuffer.position();
+		// A reader that sees the new end must see the line
+		fence();
+		mBuffer.putLong(COMMITTED_OFFSET, mCommitted);
+	}
+
+	/**
+	 * Keeps the stores before it before the stores after it: a volatile store followed by a
+	 * volatile load of the same field orders everything around it, and costs no system call.
+	 */
+	private void fence()
+	{
+		mFence = mCommitted;
+		mCommitted = mFence;
+	}
+
+	private void nextSegment() throws IOException
+	{
+		byte[] partial = null;
+		if (mBuffer != null) {
+			// A line longer than a whole segment is split rather than moved
+			if (mCommitted == HEADER_BYTES)
+				commit();
+			partial = new byte[mBuffer.position() - mCommitted];
+			mBuffer.position(mCommitted);
+			mBuffer.get(partial);
+			seal(FLAG_SEALED);
+		}
+		mBuffer = map(++mSegment);
+		mCommitted = HEADER_BYTES;
+		if (partial != null)
+			mBuffer.put(partial);
+	}
+
+	private MappedByteBuffer map(int segment) throws IOException
+	{
+		RandomAccessFile file = new RandomAccessFile(segmentName(mBaseName, segment), "rw");
+		try {
+			// Drop whatever a file of the same name held
+			file.setLength(0);
+			file.setLength(mSegmentBytes);
+			MappedByteBuffer buffer = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, mSegmentBytes);
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			buffer.putInt(VERSION_OFFSET, VERSION).putLong(COMMITTED_OFFSET, HEADER_BYTES)
+					.putInt(FLAGS_OFFSET, 0).putInt(SEGMENT_OFFSET, segment);
+			fence();
+			// Last, so a reader that finds the magic finds a whole header
+			buffer.putInt(MAGIC_OFFSET, MAGIC);
+			buffer.position(HEADER_BYTES);
+			return buffer;
+		} finally {
+			// The mapping stays valid
+			file.close();
+		}
+	}
+
+	private void seal(int flags)
+	{
+		mBuffer.putLong(COMMITTED_OFFSET, mCommitted);
+		fence();
+		mBuffer.putInt(FLAGS_OFFSET, flags);
+		mBuffer.force();
+	}
+
+	/**
+	 * Nothing to do: a line is in the page cache as soon as its <code>'\n'</code> is written.
+	 */
+	public void flush()
+	{
+	}
+
+	/**
+	 * Seals the last segment as closed and forces it to disk. An incomplete last line is dropped.
+	 */
+	public void close()
+	{
+		if (mBuffer == null)
+			return;
+		seal(FLAG_SEALED | FLAG_CLOSED);
+		// Unmapped when collected
+		mBuffer = null;
+	}
+}
@@ -0,0 +1,152 @@
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads a {@link MappedLogFile}, while it is being written or after, from any process.
+ * <br /><br />
+ * Usage: <code>java MappedLogReader Logger-20240517-140322-4711.00000.mlog [-f]</code> prints the
+ * complete lines of that segment and of the ones after it. With <code>-f</code> it then
+ * follows the log as it grows, like <code>tail -f</code>, until the log is closed. The first
+ * argument may also be the log's base name, <code>Logger-20240517-140322-4711</code>.
+ * <br /><br />
+ * Segments are mapped read-only, so following a log costs the writer nothing. A log whose
+ * writer was killed reads like any other, up to its last complete line.
+ */
+public class MappedLogReader {
+
+	/** How often a followed log is checked for new lines. */
+	static final long POLL_MILLIS = 100;
+
+	private static final Pattern SEGMENT_NAME = Pattern.compile("(.*)\\.(\\d{5})\\.mlog");
+
+	private final String mBaseName;
+	private int mSegment;
+	private MappedByteBuffer mBuffer = null;
+	private int mPosition;
+	private final byte[] mChunk = new byte[1 << 16];
+	// See fence()
+	private volatile int mFence;
+
+	/**
+	 * @param fileName
+	 *  A segment to start at, or the base name of the log to start at its first segment.
+	 */
+	public MappedLogReader(String fileName)
+	{
+		Matcher m = SEGMENT_NAME.matcher(fileName);
+		if (m.matches()) {
+			mBaseName = m.group(1);
+			mSegment = Integer.parseInt(m.group(2));
+		} else {
+			mBaseName = fileName;
+			mSegment = 0;
+		}
+	}
+
+	public static void main(String[] args) throws IOException, InterruptedException
+	{
+		if (args.length < 1 || args.length > 2 || (args.length == 2 && !args[1].equals("-f"))) {
+			System.out.println("Usage is MappedLogReader logFile [-f]");
+			return;
+		}
+		boolean follow = (args.length == 2);
+		MappedLogReader reader = new MappedLogReader(args[0]);
+		OutputStream out = new BufferedOutputStream(new FileOutputStream(FileDescriptor.out), 1 << 16);
+		while (reader.poll(out) && follow) {
+			out.flush();
+			Thread.sleep(POLL_MILLIS);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Copies the lines completed since the last call to <code>out</code>, moving on to the next
+	 * segments as they are sealed.
+	 *
+	 * @return false once the log is closed and every line has been read; true if more may come.
+	 */
+	public boolean poll(OutputStream out) throws IOException
+	{
+		while (true) {
+			if (mBuffer == null) {
+				mBuffer = map(mSegment);
+				if (mBuffer == null)
+					return true;
+				mPosition = MappedLogFile.HEADER_BYTES;
+			}
+			// Flags before the end: once a segment is sealed its end no longer moves
+			int flags = mBuffer.getInt(MappedLogFile.FLAGS_OFFSET);
+			fence();
+			int committed = (int)mBuffer.getLong(MappedLogFile.COMMITTED_OFFSET);
+			fence();
+			if (committed > mPosition) {
+				copy(committed, out);
+				mPosition = committed;
+			}
+			if ((flags & MappedLogFile.FLAG_CLOSED) != 0)
+				return false;
+			if ((flags & MappedLogFile.FLAG_SEALED) == 0)
+				return true;
+			mBuffer = null;
+			mSegment++;
+		}
+	}
+
+	/**
+	 * Keeps the reads before it before the reads after it: a volatile store followed by a
+	 * volatile load of the same field orders everything around it. The writer does the same.
+	 */
+	private void fence()
+	{
+		mFence = mPosition;
+		mPosition = mFence;
+	}
+
+	private void copy(int end, OutputStream out) throws IOException
+	{
+		ByteBuffer lines = mBuffer.duplicate();
+		lines.position(mPosition).limit(end);
+		while (lines.hasRemaining()) {
+			int n = Math.min(lines.remaining(), mChunk.length);
+			lines.get(mChunk, 0, n);
+			out.write(mChunk, 0, n);
+		}
+	}
+
+	/**
+	 * Maps a segment, or returns null if it has not been started yet.
+	 */
+	private MappedByteBuffer map(int segment) throws IOException
+	{
+		File file = new File(MappedLogFile.segmentName(mBaseName, segment));
+		if (file.length() < MappedLogFile.HEADER_BYTES)
+			return null;
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			MappedByteBuffer buffer = in.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, in.length());
+			buffer.order(ByteOrder.LITTLE_ENDIAN);
+			int magic = buffer.getInt(MappedLogFile.MAGIC_OFFSET);
+			if (magic == 0)
+				return null;
+			if (magic != MappedLogFile.MAGIC)
+				throw new IOException(file + ": not a mapped log segment");
+			int version = buffer.getInt(MappedLogFile.VERSION_OFFSET);
+			if (version != MappedLogFile.VERSION)
+				throw new IOException(file + ": mapped log version " + version + ", expected " + MappedLogFile.VERSION);
+			return buffer;
+		} finally {
+			in.close();
+		}
+	}
+}
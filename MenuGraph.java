@@ -0,0 +1,314 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SplittableRandom;
+
+/**
+ * The IVR menu as a graph that callers walk at random (a Markov chain), for menus too deep to
+ * list every path in a path file.
+ * <br /><br />
+ * Every call starts at the start node. At each node the IVR plays its prompt for the node's
+ * delay, then the caller presses the digits of one of the node's edges, chosen with the edge's
+ * probability, and moves on to the edge's target. If a node's edge probabilities add up to less
+ * than 1, the caller hangs up there with the remaining probability; a node without edges always
+ * ends the path. Walks stop after {@link #MAX_STEPS} choices in any case, so cycles in the menu
+ * ("press 9 to go back") are allowed.
+ * <br /><br />
+ * Graph file, one declaration per line, <code>#</code> starts a comment:
+ * <pre>
+ * node main 3000
+ * node billing 3000
+ * start main
+ * edge main billing [1] 0.6
+ * edge main main [9] 0.1
+ * edge billing end [2,2,2,2,x,y] 1
+ * </pre>
+ * <code>node name delayMs</code> declares a node (the first node named in the file is the
+ * start unless <code>start</code> says otherwise); <code>edge from to digits probability</code> a choice.
+ * Edge digits are written like a path-file part, <code>x</code> and <code>y</code> included.
+ * Nodes used by edges but never declared have no delay.
+ * <br /><br />
+ * The graph is immutable once loaded; a walk picks each edge from an {@link AliasTable} in
+ * constant time and yields a {@link GraphPath}, which holds nothing but the edges taken.
+ */
+public class MenuGraph {
+
+	/** Longest walk, in choices. */
+	public static final int MAX_STEPS = 64;
+
+	// Per node: delay, and an alias table over its edges plus, last, hanging up (null: no edges)
+	private final String[] m_nodeNames;
+	private final int[] m_nodeDelays;
+	private final int[][] m_nodeEdges;
+	private final AliasTable[] m_nodeAlias;
+	// Per edge: target node and digit codes (PathTemplate.VAR_X/VAR_Y for placeholders)
+	private final int[] m_edgeTargets;
+	private final int[][] m_edgeCodes;
+	private final int m_start;
+	private final String m_source;
+
+	private MenuGraph(String source, String[] nodeNames, int[] nodeDelays, int[][] nodeEdges,
+			AliasTable[] nodeAlias, int[] edgeTargets, int[][] edgeCodes, int start)
+	{
+		m_source = source;
+		m_nodeNames = nodeNames;
+		m_nodeDelays = nodeDelays;
+		m_nodeEdges = nodeEdges;
+		m_nodeAlias = nodeAlias;
+		m_edgeTargets = edgeTargets;
+		m_edgeCodes = edgeCodes;
+		m_start = start;
+	}
+
+	/**
+	 * Reads a graph file.
+	 *
+	 * @throws IOException
+	 *  if the file cannot be read or a declaration is malformed, with the file name and line.
+	 */
+	public static MenuGraph load(String fileName) throws IOException
+	{
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		List<String> names = new ArrayList<String>();
+		List<Integer> delays = new ArrayList<Integer>();
+		List<Integer> edgeFrom = new ArrayList<Integer>();
+		List<Integer> edgeTo = new ArrayList<Integer>();
+		List<int[]> edgeCodes = new ArrayList<int[]>();
+		List<Double> edgeProbabilities = new ArrayList<Double>();
+		String start = null;
+
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "US-ASCII"));
+		try {
+			String line;
+			int lineNo = 0;
+			while ((line = br.readLine()) != null) {
+				lineNo++;
+				int hash = line.indexOf('#');
+				if (hash >= 0)
+					line = line.substring(0, hash);
+				line = line.trim();
+				if (line.isEmpty())
+					continue;
+				String[] f = line.split("\\s+");
+				try {
+					if (f[0].equals("node") && f.length == 3) {
+						int id = nodeId(f[1], ids, names, delays);
+						delays.set(id, Integer.parseInt(f[2]));
+					}
+					else if (f[0].equals("start") && f.length == 2)
+						start = f[1];
+					else if (f[0].equals("edge") && f.length >= 5) {
+						// The digits may contain spaces, as in [1, 2]: they are all between the
+						// target node and the probability, which is the last field
+						String rest = line.split("\\s+", 4)[3];
+						int space = rest.length() - f[f.length - 1].length();
+						String digitText = rest.substring(0, space).trim();
+						String probabilityText = f[f.length - 1];
+						PathTemplate digits = PathCatalog.parseLine(digitText.startsWith("[") ? digitText : "[" + digitText + "]");
+						if (digits.size() != 1)
+							throw new IllegalArgumentException("edge digits must be one part: '" + digitText + "'");
+						int[] codes = new int[digits.getCodeCount(0)];
+						for (int j = 0; j < codes.length; j++) {
+							codes[j] = digits.getCode(0, j);
+							if (PathTemplate.isNamedVariable(codes[j]))
+								throw new IllegalArgumentException("named variables are not supported in menu graphs: '" + digitText + "'");
+						}
+						double probability = Double.parseDouble(probabilityText);
+						if (Double.isNaN(probability) || probability < 0 || probability > 1)
+							throw new IllegalArgumentException("probability not within [0, 1]: " + probabilityText);
+						edgeFrom.add(nodeId(f[1], ids, names, delays));
+						edgeTo.add(nodeId(f[2], ids, names, delays));
+						edgeCodes.add(codes);
+						edgeProbabilities.add(probability);
+					}
+					else
+						throw new IllegalArgumentException("expected 'node name delayMs', 'start name' or 'edge from to digits probability'");
+				} catch (IllegalArgumentException e) {
+					throw new IOException(String.format("%s:%d: %s", fileName, lineNo, e.getMessage()));
+				}
+			}
+		} finally {
+			br.close();
+		}
+		if (names.isEmpty())
+			throw new IOException(fileName + ": no nodes");
+		if (start != null && !ids.containsKey(start))
+			throw new IOException(fileName + ": unknown start node " + start);
+
+		int nodeCount = names.size();
+		List<List<Integer>> outgoing = new ArrayList<List<Integer>>();
+		for (int n = 0; n < nodeCount; n++)
+			outgoing.add(new ArrayList<Integer>());
+		for (int e = 0; e < edgeFrom.size(); e++)
+			outgoing.get(edgeFrom.get(e)).add(e);
+
+		int[][] nodeEdges = new int[nodeCount][];
+		AliasTable[] nodeAlias = new AliasTable[nodeCount];
+		for (int n = 0; n < nodeCount; n++) {
+			List<Integer> out = outgoing.get(n);
+			nodeEdges[n] = new int[out.size()];
+			if (out.isEmpty())
+				continue;
+			double[] weights = new double[out.size() + 1];
+			double total = 0;
+			for (int k = 0; k < out.size(); k++) {
+				nodeEdges[n][k] = out.get(k);
+				weights[k] = edgeProbabilities.get(out.get(k));
+				total += weights[k];
+			}
+			if (total > 1 + 1e-9)
+				throw new IOException(String.format("%s: probabilities of the edges from %s add up to %.4f", fileName, names.get(n), total));
+			weights[out.size()] = Math.max(0, 1 - total);
+			nodeAlias[n] = new AliasTable(weights);
+		}
+
+		int[] targets = new int[edgeTo.size()];
+		for (int e = 0; e < targets.length; e++)
+			targets[e] = edgeTo.get(e);
+		int[] nodeDelays = new int[nodeCount];
+		for (int n = 0; n < nodeCount; n++)
+			nodeDelays[n] = delays.get(n);
+		return new MenuGraph(fileName, names.toArray(new String[nodeCount]), nodeDelays, nodeEdges, nodeAlias,
+				targets, edgeCodes.toArray(new int[edgeCodes.size()][]), (start == null) ? 0 : ids.get(start));
+	}
+
+	private static int nodeId(String name, Map<String, Integer> ids, List<String> names, List<Integer> delays)
+	{
+		Integer id = ids.get(name);
+		if (id == null) {
+			id = names.size();
+			ids.put(name, id);
+			names.add(name);
+			delays.add(0);
+		}
+		return id;
+	}
+
+	/**
+	 * Walks the graph once from the start node.
+	 *
+	 * @param x
+	 *  Digit for the <code>x</code> placeholder.
+	 * @param y
+	 *  Digit for the <code>y</code> placeholder.
+	 * @param random
+	 *  The call's random stream.
+	 */
+	public GraphPath walk(int x, int y, SplittableRandom random)
+	{
+		int[] steps = new int[MAX_STEPS];
+		int n = 0;
+		int node = m_start;
+		while (n < MAX_STEPS && m_nodeAlias[node] != null) {
+			int choice = m_nodeAlias[node].sample(random);
+			if (choice == m_nodeEdges[node].length)
+				break;
+			int edge = m_nodeEdges[node][choice];
+			steps[n++] = edge;
+			node = m_edgeTargets[edge];
+		}
+		return new GraphPath(Arrays.copyOf(steps, n), x, y);
+	}
+
+	public int getNodeCount()
+	{
+		return m_nodeNames.length;
+	}
+
+	public int getEdgeCount()
+	{
+		return m_edgeTargets.length;
+	}
+
+	public String getSource()
+	{
+		return m_source;
+	}
+
+	/**
+	 * A walk through the graph: the edges taken, read as a {@link Path}. Part <i>i</i> is the
+	 * digits of edge <i>i</i>, sent after the delay of the node it leaves.
+	 */
+	public class GraphPath extends Path {
+		private final int[] m_steps;
+		private final int m_x;
+		private final int m_y;
+
+		GraphPath(int[] steps, int x, int y)
+		{
+			m_steps = steps;
+			m_x = x;
+			m_y = y;
+		}
+
+		public int size()
+		{
+			return m_steps.length;
+		}
+
+		public int getDelay(int i)
+		{
+			int from = (i == 0) ? m_start : m_edgeTargets[m_steps[i - 1]];
+			return m_nodeDelays[from];
+		}
+
+		public int getDigitCount(int i)
+		{
+			return m_edgeCodes[m_steps[i]].length;
+		}
+
+		public int getDigit(int i, int j)
+		{
+			int code = m_edgeCodes[m_steps[i]][j];
+			switch (code) {
+			case PathTemplate.VAR_X:
+				return m_x;
+			case PathTemplate.VAR_Y:
+				return m_y;
+			default:
+				return code;
+			}
+		}
+
+		/**
+		 * The walk's {@link PathId stable ID}: the same as a path-file path that sends the same
+		 * digits after the same delays.
+		 */
+		public long getId()
+		{
+			long id = PathId.start();
+			for (int i = 0; i < m_steps.length; i++) {
+				id = PathId.part(id, getDelay(i));
+				for (int code : m_edgeCodes[m_steps[i]])
+					id = PathId.code(id, code);
+			}
+			return id;
+		}
+
+		/**
+		 * What the walk sends, in path-file notation, e.g. <code>[1][2,x]</code>: the same
+		 * descriptor as a path-file path with the same ID, see {@link PathCatalog#getDescriptor(int)}.
+		 */
+		public String getDescriptor()
+		{
+			StringBuilder sb = new StringBuilder();
+			for (int edge : m_steps) {
+				int[] codes = m_edgeCodes[edge];
+				sb.append('[');
+				for (int j = 0; j < codes.length; j++) {
+					if (j > 0)
+						sb.append(',');
+					PathTemplate.appendCode(sb, codes[j]);
+				}
+				sb.append(']');
+			}
+			return sb.toString();
+		}
+	}
+}
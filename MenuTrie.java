@@ -0,0 +1,398 @@
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The paths of a catalog as the IVR menu tree they walk: a prefix trie with one node per menu
+ * choice. Paths that start with the same choices share those nodes, so the tree grows with
+ * the size of the menu rather than with the number of paths.
+ * <br /><br />
+ * A choice is one part of a path, i.e. its digits (placeholders kept symbolic) and its delay.
+ * A node at which a path ends knows that path's catalog index; a second, identical path ends
+ * at the same node and is recognised as a duplicate.
+ */
+public class MenuTrie {
+
+	/**
+	 * One menu choice, reached by the choices of its ancestors.
+	 */
+	public static class Node {
+		private final Node m_parent;
+		private final Choice m_choice;
+		private final int m_depth;
+		// Sorted by choice ID, for a binary search
+		private int[] m_childIds = null;
+		private Node[] m_children = null;
+		private int m_childCount = 0;
+		private int m_pathIndex = -1;
+		private int m_pathCount = 0;
+
+		Node(Node parent, Choice choice)
+		{
+			m_parent = parent;
+			m_choice = choice;
+			m_depth = (parent == null) ? 0 : parent.m_depth + 1;
+		}
+
+		public Node getParent()
+		{
+			return m_parent;
+		}
+
+		/**
+		 * Number of choices from the root; the root is at depth 0.
+		 */
+		public int getDepth()
+		{
+			return m_depth;
+		}
+
+		public int getDelay()
+		{
+			return m_choice.m_delay;
+		}
+
+		public Collection<Node> getChildren()
+		{
+			return (m_children == null) ? Collections.<Node>emptyList()
+					: Collections.unmodifiableList(Arrays.asList(m_children).subList(0, m_childCount));
+		}
+
+		/**
+		 * Catalog index of the path that ends here, or -1 if none does.
+		 */
+		public int getPathIndex()
+		{
+			return m_pathIndex;
+		}
+
+		/**
+		 * Number of distinct paths ending at this node or below it.
+		 */
+		public int getPathCount()
+		{
+			return m_pathCount;
+		}
+
+		public boolean isLeaf()
+		{
+			return m_children == null;
+		}
+
+		int getChildCount()
+		{
+			return m_childCount;
+		}
+
+		/**
+		 * ID of the choice that leads here, see {@link MenuTrie#getChoiceCodes(int)}; -1 for the root.
+		 */
+		int getChoiceId()
+		{
+			return m_choice.m_id;
+		}
+
+		/**
+		 * The choices leading here, in path-file notation, e.g. <code>[3][8][1,x]</code>.
+		 */
+		public String toString()
+		{
+			if (m_parent == null)
+				return "";
+			int[] codes = m_choice.m_codes;
+			StringBuilder sb = new StringBuilder(m_parent.toString()).append('[');
+			for (int j = 0; j < codes.length; j++) {
+				if (j > 0)
+					sb.append(',');
+				PathTemplate.appendCode(sb, codes[j]);
+			}
+			return sb.append(']').toString();
+		}
+
+		private Node child(int choiceId)
+		{
+			int at = (m_children == null) ? -1 : Arrays.binarySearch(m_childIds, 0, m_childCount, choiceId);
+			return (at < 0) ? null : m_children[at];
+		}
+
+		private Node addChild(Choice choice)
+		{
+			if (m_children == null) {
+				m_childIds = new int[2];
+				m_children = new Node[2];
+			} else if (m_childCount == m_children.length) {
+				m_childIds = Arrays.copyOf(m_childIds, m_childCount * 2);
+				m_children = Arrays.copyOf(m_children, m_childCount * 2);
+			}
+			int at = -Arrays.binarySearch(m_childIds, 0, m_childCount, choice.m_id) - 1;
+			System.arraycopy(m_childIds, at, m_childIds, at + 1, m_childCount - at);
+			System.arraycopy(m_children, at, m_children, at + 1, m_childCount - at);
+			Node child = new Node(this, choice);
+			m_childIds[at] = choice.m_id;
+			m_children[at] = child;
+			m_childCount++;
+			return child;
+		}
+	}
+
+	/**
+	 * One distinct choice of the menu - digits and delay - with its ID in this tree. Nodes refer
+	 * to their choice and find their children by its ID, so a choice that many paths make is
+	 * stored once.
+	 */
+	private static final class Choice {
+		final int[] m_codes;
+		final int m_delay;
+		final int m_id;
+
+		Choice(int[] codes, int delay, int id)
+		{
+			m_codes = codes;
+			m_delay = delay;
+			m_id = id;
+		}
+
+		public boolean equals(Object o)
+		{
+			if (!(o instanceof Choice))
+				return false;
+			Choice other = (Choice)o;
+			return m_delay == other.m_delay && Arrays.equals(m_codes, other.m_codes);
+		}
+
+		public int hashCode()
+		{
+			return 31 * Arrays.hashCode(m_codes) + m_delay;
+		}
+	}
+
+	private final Node m_root = new Node(null, new Choice(new int[0], 0, -1));
+	private final Map<Choice, Choice> m_choices = new HashMap<Choice, Choice>();
+	// By ID
+	private final List<Choice> m_choiceList = new ArrayList<Choice>();
+	private int m_nodeCount = 1;
+	private int m_maxDepth = 0;
+
+	/**
+	 * The tree of every path of a store, in store order.
+	 */
+	public static MenuTrie build(PathStore store)
+	{
+		MenuTrie trie = new MenuTrie();
+		for (int i = 0; i < store.size(); i++)
+			trie.insert(store.getTemplate(i), i);
+		return trie;
+	}
+
+	/**
+	 * Adds a path.
+	 *
+	 * @return
+	 *  <code>pathIndex</code>, or the index of an identical path added earlier, in which case
+	 *  the tree is unchanged.
+	 */
+	public int insert(PathTemplate path, int pathIndex)
+	{
+		Node node = m_root;
+		List<Node> created = new ArrayList<Node>();
+		for (int p = 0; p < path.size(); p++) {
+			int[] codes = new int[path.getCodeCount(p)];
+			for (int j = 0; j < codes.length; j++)
+				codes[j] = path.getCode(p, j);
+			Choice choice = choice(codes, path.getDelay(p), true);
+			Node next = node.child(choice.m_id);
+			if (next == null) {
+				next = node.addChild(choice);
+				created.add(next);
+			}
+			node = next;
+		}
+		if (node.m_pathIndex >= 0)
+			return node.m_pathIndex;
+		node.m_pathIndex = pathIndex;
+		m_nodeCount += created.size();
+		m_maxDepth = Math.max(m_maxDepth, node.m_depth);
+		for (Node n = node; n != null; n = n.m_parent)
+			n.m_pathCount++;
+		return pathIndex;
+	}
+
+	public Node getRoot()
+	{
+		return m_root;
+	}
+
+	public int getNodeCount()
+	{
+		return m_nodeCount;
+	}
+
+	public int getMaxDepth()
+	{
+		return m_maxDepth;
+	}
+
+	/**
+	 * The node reached by the choices of <code>prefix</code>, written like a line of the path
+	 * file (e.g. <code>[3][8]</code>), or null if no path starts that way. An empty prefix is the root.
+	 */
+	public Node find(String prefix)
+	{
+		if (prefix.trim().isEmpty())
+			return m_root;
+		return find(PathCatalog.parseLine(prefix));
+	}
+
+	public Node find(PathTemplate prefix)
+	{
+		Node node = m_root;
+		for (int p = 0; p < prefix.size() && node != null; p++) {
+			int[] codes = new int[prefix.getCodeCount(p)];
+			for (int j = 0; j < codes.length; j++)
+				codes[j] = prefix.getCode(p, j);
+			Choice choice = choice(codes, prefix.getDelay(p), false);
+			node = (choice == null) ? null : node.child(choice.m_id);
+		}
+		return node;
+	}
+
+	/**
+	 * The tree's instance of a choice, made if <code>create</code> is set; otherwise null if no
+	 * path makes that choice.
+	 */
+	private Choice choice(int[] codes, int delay, boolean create)
+	{
+		Choice probe = new Choice(codes, delay, m_choices.size());
+		Choice choice = m_choices.get(probe);
+		if (choice == null && create) {
+			m_choices.put(probe, probe);
+			m_choiceList.add(probe);
+			choice = probe;
+		}
+		return choice;
+	}
+
+	/**
+	 * Number of distinct choices in the tree; their IDs are 0 to this number - 1.
+	 */
+	int getChoiceCount()
+	{
+		return m_choiceList.size();
+	}
+
+	int[] getChoiceCodes(int choiceId)
+	{
+		return m_choiceList.get(choiceId).m_codes.clone();
+	}
+
+	int getChoiceDelay(int choiceId)
+	{
+		return m_choiceList.get(choiceId).m_delay;
+	}
+
+	/**
+	 * Rebuilds a tree from the form {@link CatalogFile} stores it in, without reading any path:
+	 * the choices by ID, then the nodes in depth-first order, root first, children in the order
+	 * of {@link Node#getChildren()}.
+	 *
+	 * @param nodeChoices
+	 *  Choice ID of every node (ignored for the root).
+	 * @param nodePaths
+	 *  {@link Node#getPathIndex() Path index} of every node.
+	 * @param nodeChildren
+	 *  Number of children of every node.
+	 * @throws IllegalArgumentException
+	 *  if the arrays do not describe a tree.
+	 */
+	static MenuTrie fromArrays(int[][] choiceCodes, int[] choiceDelays, IntBuffer nodeChoices, IntBuffer nodePaths, IntBuffer nodeChildren)
+	{
+		MenuTrie trie = new MenuTrie();
+		for (int c = 0; c < choiceCodes.length; c++)
+			trie.choice(choiceCodes[c], choiceDelays[c], true);
+		int count = nodeChoices.limit();
+		if (count < 1 || nodePaths.limit() != count || nodeChildren.limit() != count || trie.m_choices.size() != choiceCodes.length)
+			throw new IllegalArgumentException("not a menu tree");
+		Node[] nodes = new Node[count];
+		nodes[0] = trie.m_root;
+		// Nodes whose children are still to come, with how many of them are
+		Node[] open = new Node[count];
+		int[] missing = new int[count];
+		int depth = 0;
+		for (int i = 0; i < count; i++) {
+			Node node;
+			if (i == 0)
+				node = trie.m_root;
+			else {
+				if (depth == 0)
+					throw new IllegalArgumentException("not a menu tree");
+				int choice = nodeChoices.get(i);
+				if (choice < 0 || choice >= choiceCodes.length)
+					throw new IllegalArgumentException("bad choice ID " + choice);
+				node = open[depth - 1].addChild(trie.m_choiceList.get(choice));
+				if (--missing[depth - 1] == 0)
+					depth--;
+				trie.m_maxDepth = Math.max(trie.m_maxDepth, node.m_depth);
+			}
+			nodes[i] = node;
+			node.m_pathIndex = nodePaths.get(i);
+			int children = nodeChildren.get(i);
+			if (children > 0) {
+				node.m_childIds = new int[children];
+				node.m_children = new Node[children];
+				open[depth] = node;
+				missing[depth++] = children;
+			}
+		}
+		if (depth != 0)
+			throw new IllegalArgumentException("not a menu tree");
+		trie.m_nodeCount = count;
+		for (int i = count - 1; i >= 0; i--) {
+			Node node = nodes[i];
+			if (node.m_pathIndex >= 0)
+				node.m_pathCount++;
+			if (node.m_parent != null)
+				node.m_parent.m_pathCount += node.m_pathCount;
+		}
+		return trie;
+	}
+
+	/**
+	 * Every node at the given depth, i.e. every distinct choice sequence of that length.
+	 */
+	public List<Node> nodesAtDepth(int depth)
+	{
+		List<Node> level = new ArrayList<Node>();
+		level.add(m_root);
+		for (int d = 0; d < depth && !level.isEmpty(); d++) {
+			List<Node> next = new ArrayList<Node>();
+			for (Node node : level)
+				next.addAll(node.getChildren());
+			level = next;
+		}
+		return level;
+	}
+
+	/**
+	 * Catalog indexes of the paths ending at or below <code>node</code>, in ascending order.
+	 */
+	public int[] pathsUnder(Node node)
+	{
+		int[] paths = new int[node.m_pathCount];
+		int n = 0;
+		List<Node> stack = new ArrayList<Node>();
+		stack.add(node);
+		while (!stack.isEmpty()) {
+			Node top = stack.remove(stack.size() - 1);
+			if (top.m_pathIndex >= 0)
+				paths[n++] = top.m_pathIndex;
+			stack.addAll(top.getChildren());
+		}
+		Arrays.sort(paths);
+		return paths;
+	}
+}
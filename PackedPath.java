@@ -0,0 +1,59 @@
+/**
+ * One path of a {@link PathStore}, bound to a call's customer-ID digits, read straight from the
+ * store's arrays: making one allocates nothing but the view itself.
+ * <br /><br />
+ * {@link #getDigit(int, int)} and friends read the arena directly; {@link #GetPart(int)} still
+ * works for older callers but builds a new {@link PartialPath} on every call.
+ */
+public class PackedPath extends Path {
+
+	private final PathStore m_store;
+	private final int m_firstPart;
+	private final int m_partCount;
+	private final int m_x;
+	private final int m_y;
+
+	PackedPath(PathStore store, int path, int x, int y)
+	{
+		m_store = store;
+		m_firstPart = store.firstPart(path);
+		m_partCount = store.getPartCount(path);
+		m_x = x;
+		m_y = y;
+	}
+
+	public int size()
+	{
+		return m_partCount;
+	}
+
+	public int getDelay(int i)
+	{
+		return m_store.partDelay(part(i));
+	}
+
+	public int getDigitCount(int i)
+	{
+		return m_store.partLength(part(i));
+	}
+
+	public int getDigit(int i, int j)
+	{
+		int code = m_store.partCode(part(i), j);
+		switch (code) {
+		case PathStore.CODE_X:
+			return m_x;
+		case PathStore.CODE_Y:
+			return m_y;
+		default:
+			return code;
+		}
+	}
+
+	private int part(int i)
+	{
+		if (i < 0 || i >= m_partCount)
+			throw new IndexOutOfBoundsException("part " + i + " of " + m_partCount);
+		return m_firstPart + i;
+	}
+}
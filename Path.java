@@ -1,21 +1,48 @@
-import java.util.ArrayList;
-import java.util.List;
+/**
+ * The DTMF parts of one call, read-only: part <i>i</i> is sent {@link #getDelay(int)} ms after
+ * the one before it. {@link ListPath} holds its parts in a list; {@link PackedPath} and
+ * {@link MenuGraph.GraphPath} read them from where they are stored, without copying.
+ */
+public abstract class Path {
 
+	public abstract int size();
 
+	/**
+	 * Pause in milliseconds before part <code>i</code> is sent.
+	 */
+	public abstract int getDelay(int i);
 
-public class Path {
-	private List<PartialPath> m_list = new ArrayList<PartialPath>();
-	public void Add(int [] digits, int delay)
-	{
-		PartialPath p = new PartialPath(digits, delay);
-		m_list.add(p);
-	}
-	public int size()
+	/**
+	 * Number of digits in part <code>i</code>.
+	 */
+	public abstract int getDigitCount(int i);
+
+	/**
+	 * Digit <code>j</code> of part <code>i</code>. Reading a path this way (rather than through
+	 * {@link #GetPart(int)}) lets a {@link PackedPath} be read without building any arrays.
+	 */
+	public abstract int getDigit(int i, int j);
+
+	/**
+	 * Part <code>i</code> as a {@link PartialPath}, built from the other accessors unless the
+	 * path keeps its parts that way.
+	 */
+	public PartialPath GetPart(int i)
 	{
-		return m_list.size();
+		int[] digits = new int[getDigitCount(i)];
+		for (int j = 0; j < digits.length; j++)
+			digits[j] = getDigit(i, j);
+		return new PartialPath(digits, getDelay(i));
 	}
-	public PartialPath GetPart(int i)
+
+	/**
+	 * Total number of digits over all parts.
+	 */
+	public int getDigitCount()
 	{
-		return (PartialPath)m_list.get(i);
+		int count = 0;
+		for (int i = 0; i < size(); i++)
+			count += getDigitCount(i);
+		return count;
 	}
 }
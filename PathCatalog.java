@@ -0,0 +1,494 @@
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.DoubleBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+/**
+ * The IVR paths of a path file, parsed once.
+ * <br /><br />
+ * Each non-empty line of the file is one path, written as a sequence of bracketed parts such as
+ * <code>[2,2,2,2,x,y][8][8,1,1]</code>. A part with a single digit is sent
+ * {@link #SINGLE_DIGIT_DELAY_MS} after the previous one (the IVR is playing a menu), a part
+ * with several digits right away. <code>x</code> and <code>y</code> stay symbolic until a
+ * call binds them, see {@link PathTemplate#bind(int, int)}. So do named variables such as
+ * <code>[2,2,2,2,${customer}][8][${pin}]</code>, which stand for all the digits of a value
+ * taken from a data feed for each call, see {@link DataFeeds}.
+ * <br /><br />
+ * A line may end in <code>@ weight</code>, e.g. <code>[1][1,1,1] @ 20</code>, to make the path
+ * that many times as likely to be picked as a path of weight 1 (the default). Paths are drawn
+ * from an {@link AliasTable} built with the catalog, in constant time per pick.
+ * <br /><br />
+ * The paths are kept packed in a {@link PathStore}, and indexed by the menu tree they walk, a
+ * {@link MenuTrie}. A line that repeats an earlier one is not stored again; its weight is added
+ * to the earlier line's. {@link #select(String)} restricts calls to one branch of the menu.
+ * <br /><br />
+ * A path file with millions of lines can be compiled once into a binary catalog that loads
+ * by memory-mapping, see {@link CatalogFile}. The menu tree is only built when something asks
+ * for it.
+ * <br /><br />
+ * A catalog never changes after it is built, so any number of call threads may share it
+ * without locking.
+ */
+public class PathCatalog {
+
+	/** Pause before a single-digit part, in milliseconds. */
+	public static final int SINGLE_DIGIT_DELAY_MS = 3000;
+
+	private final String m_source;
+	private final PathStore m_store;
+	private final DoubleBuffer m_weights;
+	private final boolean m_weighted;
+	private final AliasTable m_alias;
+	// PathId of every path, hashed once when the catalog is built or mapped
+	private final long[] m_ids;
+	private volatile MenuTrie m_trie;
+	// The tree stored with a compiled catalog, or null
+	private final CatalogFile.StoredTrie m_storedTrie;
+
+	/**
+	 * A catalog in which every path is equally likely.
+	 */
+	public PathCatalog(String source, List<PathTemplate> paths)
+	{
+		this(source, paths, null);
+	}
+
+	/**
+	 * @param weights
+	 *  Relative weight of every path, or null for equal weights. Copied.
+	 */
+	public PathCatalog(String source, List<PathTemplate> paths, double[] weights)
+	{
+		this(source, pack(paths), weights);
+	}
+
+	/**
+	 * @param weights
+	 *  Relative weight of every path, or null for equal weights. Copied.
+	 */
+	public PathCatalog(String source, PathStore store, double[] weights)
+	{
+		this(source, store, weights, null);
+	}
+
+	private PathCatalog(String source, PathStore store, double[] weights, MenuTrie trie)
+	{
+		m_source = source;
+		m_trie = trie;
+		m_storedTrie = null;
+		m_store = store;
+		if (weights == null) {
+			weights = new double[m_store.size()];
+			Arrays.fill(weights, 1);
+		}
+		else if (weights.length != m_store.size())
+			throw new IllegalArgumentException("paths and weights differ in length");
+		m_weights = DoubleBuffer.wrap(weights.clone());
+		boolean weighted = false;
+		for (double weight : weights)
+			weighted |= (weight != weights[0]);
+		m_weighted = weighted;
+		m_alias = (m_store.size() == 0) ? null : new AliasTable(weights);
+		m_ids = ids(store);
+	}
+
+	/**
+	 * A catalog whose weights and alias table were computed earlier, see {@link CatalogFile}.
+	 *
+	 * @param trie
+	 *  The menu tree stored with the catalog, or null to build it from the paths when needed.
+	 */
+	PathCatalog(String source, PathStore store, DoubleBuffer weights, boolean weighted, AliasTable alias, CatalogFile.StoredTrie trie)
+	{
+		if (weights.limit() != store.size() || (alias != null && alias.size() != store.size()))
+			throw new IllegalArgumentException("paths and weights differ in length");
+		m_source = source;
+		m_store = store;
+		m_weights = weights;
+		m_weighted = weighted;
+		m_alias = alias;
+		m_storedTrie = trie;
+		m_ids = ids(store);
+	}
+
+	private static long[] ids(PathStore store)
+	{
+		long[] ids = new long[store.size()];
+		for (int i = 0; i < ids.length; i++)
+			ids[i] = store.getId(i);
+		return ids;
+	}
+
+	private static PathStore pack(List<PathTemplate> paths)
+	{
+		PathStore.Builder builder = new PathStore.Builder();
+		for (PathTemplate path : paths)
+			builder.add(path);
+		return builder.build();
+	}
+
+	/**
+	 * Parses a path file.
+	 *
+	 * @throws IOException
+	 *  if the file cannot be read, a line is not a series of <code>[ ]</code> parts (commas and
+	 *  white space between them are allowed), a part contains something other than digits, <code>x</code>, <code>y</code> or <code>${name}</code>,
+	 *  or a weight is not a number, negative, or every weight is 0.
+	 */
+	public static PathCatalog load(String fileName) throws IOException
+	{
+		PathStore.Builder paths = new PathStore.Builder();
+		List<Double> weights = new ArrayList<Double>();
+		MenuTrie trie = new MenuTrie();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "US-ASCII"));
+		try {
+			String line;
+			int lineNo = 0;
+			while ((line = br.readLine()) != null) {
+				lineNo++;
+				if (line.trim().isEmpty())
+					continue;
+				try {
+					double weight = parseWeight(line);
+					PathTemplate path = parseLine(line);
+					int index = trie.insert(path, paths.size());
+					if (index < paths.size())
+						weights.set(index, weights.get(index) + weight);
+					else {
+						paths.add(path);
+						weights.add(weight);
+					}
+				} catch (IllegalArgumentException e) {
+					throw new IOException(String.format("%s:%d: %s", fileName, lineNo, e.getMessage()));
+				}
+			}
+		} finally {
+			br.close();
+		}
+		double[] weightArray = new double[weights.size()];
+		for (int i = 0; i < weightArray.length; i++)
+			weightArray[i] = weights.get(i);
+		try {
+			return new PathCatalog(fileName, paths.build(), weightArray, trie);
+		} catch (IllegalArgumentException e) {
+			throw new IOException(fileName + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * The weight given by a trailing <code>@ weight</code>, or 1 if the line has none.
+	 */
+	static double parseWeight(String line)
+	{
+		int at = line.indexOf('@');
+		if (at < 0)
+			return 1;
+		String text = line.substring(at + 1).trim();
+		double weight;
+		try {
+			weight = Double.parseDouble(text);
+		} catch (NumberFormatException e) {
+			throw new IllegalArgumentException("not a weight: '" + text + "'");
+		}
+		if (weight < 0 || Double.isNaN(weight) || Double.isInfinite(weight))
+			throw new IllegalArgumentException("bad weight: '" + text + "'");
+		return weight;
+	}
+
+	/**
+	 * Compiles one line of the path file.
+	 */
+	static PathTemplate parseLine(String line)
+	{
+		List<int[]> codes = new ArrayList<int[]>();
+		List<Integer> delays = new ArrayList<Integer>();
+		int at = line.indexOf('@');
+		if (at >= 0)
+			line = line.substring(0, at);
+		int open;
+		while ((open = line.indexOf('[')) >= 0) {
+			if (!isSeparator(line.substring(0, open)))
+				throw new IllegalArgumentException("not inside [ ]: '" + line.substring(0, open).trim() + "'");
+			int close = line.indexOf(']', open);
+			if (close < 0)
+				throw new IllegalArgumentException("unclosed '['");
+			String[] tokens = line.substring(open + 1, close).split(",");
+			line = line.substring(close + 1);
+			int[] partCodes = new int[tokens.length];
+			for (int j = 0; j < tokens.length; j++) {
+				String token = tokens[j].trim();
+				if (token.equals("x"))
+					partCodes[j] = PathTemplate.VAR_X;
+				else if (token.equals("y"))
+					partCodes[j] = PathTemplate.VAR_Y;
+				else if (token.startsWith("${") && token.endsWith("}")) {
+					String name = token.substring(2, token.length() - 1).trim();
+					if (!isVariableName(name))
+						throw new IllegalArgumentException("not a variable name: '" + token + "'");
+					partCodes[j] = PathTemplate.variable(name);
+				}
+				else {
+					try {
+						partCodes[j] = Integer.parseInt(token);
+					} catch (NumberFormatException e) {
+						throw new IllegalArgumentException("not a digit or variable: '" + token + "'");
+					}
+				}
+			}
+			codes.add(partCodes);
+			delays.add((partCodes.length > 1) ? 0 : SINGLE_DIGIT_DELAY_MS);
+		}
+		if (!isSeparator(line))
+			throw new IllegalArgumentException("not inside [ ]: '" + line.trim() + "'");
+		if (codes.isEmpty())
+			throw new IllegalArgumentException("no [ ] parts");
+		int[] delayArray = new int[delays.size()];
+		for (int i = 0; i < delayArray.length; i++)
+			delayArray[i] = delays.get(i);
+		return new PathTemplate(codes.toArray(new int[codes.size()][]), delayArray);
+	}
+
+	/**
+	 * Whether text between parts is only commas and white space, as in <code>[1,2], [3]</code>.
+	 */
+	private static boolean isSeparator(String text)
+	{
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			if (c != ',' && !Character.isWhitespace(c))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether <code>name</code> can name a variable: a letter or underscore, then letters,
+	 * digits or underscores.
+	 */
+	static boolean isVariableName(String name)
+	{
+		if (name.isEmpty() || !(Character.isLetter(name.charAt(0)) || name.charAt(0) == '_'))
+			return false;
+		for (int i = 1; i < name.length(); i++) {
+			char c = name.charAt(i);
+			if (!(Character.isLetterOrDigit(c) || c == '_'))
+				return false;
+		}
+		return true;
+	}
+
+	public int size()
+	{
+		return m_store.size();
+	}
+
+	/**
+	 * Path <code>index</code>, unpacked; use {@link #bind(int, int, int)} for calls.
+	 */
+	public PathTemplate get(int index)
+	{
+		return m_store.getTemplate(index);
+	}
+
+	/**
+	 * Path <code>index</code> with <code>x</code> and <code>y</code> bound, as a view of the store.
+	 */
+	public Path bind(int index, int x, int y)
+	{
+		return m_store.view(index, x, y);
+	}
+
+	/**
+	 * Path <code>index</code> with <code>x</code>, <code>y</code> and its named variables bound,
+	 * see {@link PathStore#view(int, int, int, String[])}.
+	 */
+	public Path bind(int index, int x, int y, String[] values)
+	{
+		return m_store.view(index, x, y, values);
+	}
+
+	/**
+	 * The {@link PathId stable ID} of path <code>index</code>. The IDs are hashed once, when the
+	 * catalog is built or mapped, so a call only reads them.
+	 */
+	public long getId(int index)
+	{
+		return m_ids[index];
+	}
+
+	/**
+	 * What path <code>index</code> sends, in path-file notation; see {@link PathDictionary}.
+	 */
+	public String getDescriptor(int index)
+	{
+		return m_store.getTemplate(index).toString();
+	}
+
+	/**
+	 * Codes of the named variables path <code>index</code> uses, see {@link PathStore#getVariables(int)}.
+	 */
+	public int[] getVariables(int index)
+	{
+		return m_store.getVariables(index);
+	}
+
+	/**
+	 * Names of the named variables used anywhere in the catalog.
+	 */
+	public String[] getVariableNames()
+	{
+		return m_store.getVariableNames();
+	}
+
+	public PathStore getStore()
+	{
+		return m_store;
+	}
+
+	/**
+	 * The menu tree of the catalog, built on first use: from the tree stored in a compiled
+	 * catalog if it has one, otherwise from the paths.
+	 */
+	public MenuTrie getTrie()
+	{
+		MenuTrie trie = m_trie;
+		if (trie == null) {
+			synchronized (this) {
+				if ((trie = m_trie) == null)
+					m_trie = trie = (m_storedTrie != null) ? m_storedTrie.build() : MenuTrie.build(m_store);
+			}
+		}
+		return trie;
+	}
+
+	/**
+	 * The menu tree if it has been built, or null; does not build it.
+	 */
+	public MenuTrie peekTrie()
+	{
+		return m_trie;
+	}
+
+	DoubleBuffer weights()
+	{
+		return m_weights.duplicate();
+	}
+
+	AliasTable alias()
+	{
+		return m_alias;
+	}
+
+	/**
+	 * Every path of the catalog.
+	 */
+	public Selection all()
+	{
+		return new Selection(this, null, m_alias, "");
+	}
+
+	/**
+	 * The paths that start with the choices of <code>prefix</code>, written like a line of the
+	 * path file (e.g. <code>[3][8]</code>), still drawn by their weights.
+	 *
+	 * @throws IllegalArgumentException
+	 *  if no path starts that way.
+	 */
+	public Selection select(String prefix)
+	{
+		MenuTrie trie = getTrie();
+		MenuTrie.Node node = trie.find(prefix);
+		if (node == null || node.getPathCount() == 0)
+			throw new IllegalArgumentException("no path in " + m_source + " starts with " + prefix);
+		int[] indexes = trie.pathsUnder(node);
+		double[] weights = new double[indexes.length];
+		for (int i = 0; i < indexes.length; i++)
+			weights[i] = m_weights.get(indexes[i]);
+		return new Selection(this, indexes, new AliasTable(weights), node.toString());
+	}
+
+	/**
+	 * Some paths of a catalog, drawn by weight. Immutable.
+	 */
+	public static class Selection implements PathSelector {
+		private final PathCatalog m_catalog;
+		private final int[] m_indexes;
+		private final AliasTable m_alias;
+		private final String m_prefix;
+
+		Selection(PathCatalog catalog, int[] indexes, AliasTable alias, String prefix)
+		{
+			m_catalog = catalog;
+			m_indexes = indexes;
+			m_alias = alias;
+			m_prefix = prefix;
+		}
+
+		public PathCatalog getCatalog()
+		{
+			return m_catalog;
+		}
+
+		public int size()
+		{
+			return (m_indexes == null) ? m_catalog.size() : m_indexes.length;
+		}
+
+		public int select(long callIndex, SplittableRandom random)
+		{
+			return pick(random);
+		}
+
+		/**
+		 * Catalog index of a path drawn according to the weights.
+		 */
+		public int pick(SplittableRandom random)
+		{
+			if (m_alias == null)
+				throw new IllegalStateException("no paths in " + m_catalog.getSource());
+			int i = m_alias.sample(random);
+			return (m_indexes == null) ? i : m_indexes[i];
+		}
+
+		/**
+		 * The prefix all selected paths start with; empty for the whole catalog.
+		 */
+		public String getPrefix()
+		{
+			return m_prefix;
+		}
+	}
+
+	public double getWeight(int index)
+	{
+		return m_weights.get(index);
+	}
+
+	/**
+	 * Whether any two paths have different weights.
+	 */
+	public boolean isWeighted()
+	{
+		return m_weighted;
+	}
+
+	/**
+	 * Index of a path drawn according to the weights, in constant time.
+	 */
+	public int pick(SplittableRandom random)
+	{
+		if (m_alias == null)
+			throw new IllegalStateException("no paths in " + m_source);
+		return m_alias.sample(random);
+	}
+
+	public String getSource()
+	{
+		return m_source;
+	}
+}
@@ -0,0 +1,85 @@
+/**
+ * Writes what each {@link PathId path ID} stands for to the log the first time a call uses the
+ * path, so per-call log lines only need the ID:
+ * <pre>
+ * PathId 5c0d3b0a9e4f6a21 = [2,2,2,2,x,y][8][8,1,1]
+ * Path 5c0d3b0a9e4f6a21 x=4 y=7
+ * </pre>
+ * IDs are remembered in an open-addressing table of <code>long</code>s, so the dictionary
+ * costs eight to sixteen bytes per distinct path used, and a path file that is reloaded does
+ * not describe its unchanged paths again. Thread-safe.
+ */
+public class PathDictionary {
+
+	// 0 marks a free slot; an ID that is 0 is remembered by m_hasZero
+	private long[] m_ids = new long[1024];
+	private int m_count = 0;
+	private boolean m_hasZero = false;
+	private final Logger m_log;
+
+	public PathDictionary(Logger log)
+	{
+		m_log = log;
+	}
+
+	/**
+	 * Whether <code>id</code> is used for the first time, in which case the caller should
+	 * {@link #describe(long, String) describe} it. Remembers it either way.
+	 */
+	public synchronized boolean firstUse(long id)
+	{
+		if (id == 0) {
+			boolean first = !m_hasZero;
+			m_hasZero = true;
+			return first;
+		}
+		int mask = m_ids.length - 1;
+		for (int slot = mix(id) & mask; ; slot = (slot + 1) & mask) {
+			if (m_ids[slot] == id)
+				return false;
+			if (m_ids[slot] == 0) {
+				m_ids[slot] = id;
+				if (++m_count * 2 > m_ids.length)
+					grow();
+				return true;
+			}
+		}
+	}
+
+	private void grow()
+	{
+		long[] old = m_ids;
+		m_ids = new long[old.length * 2];
+		int mask = m_ids.length - 1;
+		for (long id : old) {
+			if (id == 0)
+				continue;
+			int slot = mix(id) & mask;
+			while (m_ids[slot] != 0)
+				slot = (slot + 1) & mask;
+			m_ids[slot] = id;
+		}
+	}
+
+	private static int mix(long id)
+	{
+		long h = id * 0x9E3779B97F4A7C15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * Writes the dictionary line of <code>id</code>.
+	 */
+	public void describe(long id, String descriptor)
+	{
+		m_log.Write(PathId.appendTo(new StringBuilder("PathId "), id).append(" = ").append(descriptor).toString());
+	}
+
+	/**
+	 * Number of distinct paths described.
+	 */
+	public synchronized int size()
+	{
+		return m_count + (m_hasZero ? 1 : 0);
+	}
+}
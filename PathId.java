@@ -0,0 +1,87 @@
+/**
+ * Stable numeric IDs of IVR paths: a 64-bit FNV-1a hash of what the path sends, i.e. per part
+ * its delay and its digits, with <code>x</code>, <code>y</code> and named variables hashed by
+ * name rather than value.
+ * <br /><br />
+ * The ID depends on nothing but the path itself, so a path keeps its ID when the path file is
+ * reordered, reloaded or compiled with {@link CatalogFile}, and the logs of different runs can
+ * be joined on it. {@link PathDictionary} writes what each ID stands for to the log once.
+ * <br /><br />
+ * The methods fold one element at a time into a running hash, so an ID is computed straight
+ * from whatever holds the path, without building a string.
+ */
+public class PathId {
+
+	static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+	static final long FNV_PRIME = 0x100000001b3L;
+
+	private PathId()
+	{
+	}
+
+	/**
+	 * The hash of an empty path.
+	 */
+	public static long start()
+	{
+		return FNV_OFFSET_BASIS;
+	}
+
+	private static long mix(long hash, int b)
+	{
+		return (hash ^ (b & 0xFF)) * FNV_PRIME;
+	}
+
+	/**
+	 * Folds in the start of a part sent after <code>delay</code> milliseconds.
+	 */
+	public static long part(long hash, int delay)
+	{
+		hash = mix(hash, '[');
+		hash = mix(hash, delay >>> 24);
+		hash = mix(hash, delay >>> 16);
+		hash = mix(hash, delay >>> 8);
+		return mix(hash, delay);
+	}
+
+	/**
+	 * Folds in one code of a part: a digit, {@link PathTemplate#VAR_X} or {@link PathTemplate#VAR_Y}.
+	 */
+	public static long code(long hash, int code)
+	{
+		if (code == PathTemplate.VAR_X)
+			return mix(hash, 'x');
+		if (code == PathTemplate.VAR_Y)
+			return mix(hash, 'y');
+		return mix(hash, '0' + code);
+	}
+
+	/**
+	 * Folds in the named variable <code>name</code>.
+	 */
+	public static long variable(long hash, String name)
+	{
+		hash = mix(hash, '$');
+		for (int i = 0; i < name.length(); i++) {
+			char c = name.charAt(i);
+			hash = mix(hash, c >>> 8);
+			hash = mix(hash, c);
+		}
+		return mix(hash, '}');
+	}
+
+	/**
+	 * Sixteen hexadecimal digits, as IDs are written to the log.
+	 */
+	public static String toString(long id)
+	{
+		return appendTo(new StringBuilder(16), id).toString();
+	}
+
+	public static StringBuilder appendTo(StringBuilder sb, long id)
+	{
+		for (int shift = 60; shift >= 0; shift -= 4)
+			sb.append(Character.forDigit((int)(id >>> shift) & 0xF, 16));
+		return sb;
+	}
+}
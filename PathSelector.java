@@ -0,0 +1,28 @@
+import java.util.SplittableRandom;
+
+/**
+ * Decides which path of a catalog each call takes.
+ * <br /><br />
+ * Implementations are called from many call threads at once. Given the same call index and
+ * random stream they should make the same choice, so seeded runs repeat (see {@link RandomStreams}).
+ * {@link CoverageScheduler} is the exception: it hands out its order to the calls that play a
+ * path, in the order they ask, so which call gets which path is not repeatable; that every path
+ * is played once per round is.
+ */
+public interface PathSelector {
+
+	/**
+	 * The catalog whose paths are selected.
+	 */
+	PathCatalog getCatalog();
+
+	/**
+	 * Catalog index of the path for a call.
+	 *
+	 * @param callIndex
+	 *  Number of the call in the run.
+	 * @param random
+	 *  The call's own random stream.
+	 */
+	int select(long callIndex, SplittableRandom random);
+}
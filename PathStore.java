@@ -0,0 +1,386 @@
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every path of a catalog packed into a few primitive arrays, for path files with millions of
+ * lines.
+ * <br /><br />
+ * Digit codes (0-9, or {@link #CODE_X}/{@link #CODE_Y} for the customer-ID placeholders) take
+ * four bits each in one shared arena. A named variable takes three: {@link #CODE_VAR}, then
+ * the variable's index among the store's {@link #getVariableNames() names}, low nibble first. Per part there is the index of its first code in the arena
+ * and its delay; per path, the index of its first part. A path therefore costs a few bytes
+ * plus half a byte per digit instead of a list, one object per part and an <code>int</code>
+ * per digit, and reading a path's digits walks consecutive bytes.
+ * <br /><br />
+ * The arrays are held as NIO buffers: on the heap for a store built from a path file, or
+ * mapped straight from a compiled catalog file (see {@link CatalogFile}), in which case a path
+ * is only read from the file when a call uses it.
+ * <br /><br />
+ * Paths are read through {@link PackedPath} views, which resolve the placeholders as they are
+ * read. A path with named variables is bound into a plain {@link Path} instead, since its
+ * parts are only as long as the values they are given. A store never changes after {@link Builder#build()}, so it is shared without locking.
+ */
+public class PathStore {
+
+	/** Code of the <code>x</code> placeholder in the arena. */
+	public static final int CODE_X = 10;
+	/** Code of the <code>y</code> placeholder in the arena. */
+	public static final int CODE_Y = 11;
+	/** Code that starts a named variable in the arena; the next two codes hold its index. */
+	public static final int CODE_VAR = 12;
+	/** Most named variables one store can hold. */
+	public static final int MAX_VARIABLES = 256;
+
+	private final ByteBuffer m_codes;
+	private final IntBuffer m_partStart;
+	private final IntBuffer m_delays;
+	private final IntBuffer m_pathStart;
+	private final String[] m_variableNames;
+	// Per variable index, its PathTemplate code
+	private final int[] m_variableCodes;
+
+	/**
+	 * @param codes
+	 *  Two codes per byte, the first in the low nibble.
+	 * @param partStart
+	 *  Per part, the index of its first code; one more entry holding the number of codes.
+	 * @param delays
+	 *  Per part, its delay.
+	 * @param pathStart
+	 *  Per path, the index of its first part; one more entry holding the number of parts.
+	 * @param variableNames
+	 *  Names of the named variables, by the index the arena refers to them with.
+	 */
+	PathStore(ByteBuffer codes, IntBuffer partStart, IntBuffer delays, IntBuffer pathStart, String[] variableNames)
+	{
+		m_codes = codes;
+		m_partStart = partStart;
+		m_delays = delays;
+		m_pathStart = pathStart;
+		m_variableNames = variableNames.clone();
+		m_variableCodes = new int[variableNames.length];
+		for (int v = 0; v < variableNames.length; v++)
+			m_variableCodes[v] = PathTemplate.variable(variableNames[v]);
+	}
+
+	/**
+	 * Number of paths.
+	 */
+	public int size()
+	{
+		return m_pathStart.limit() - 1;
+	}
+
+	/**
+	 * Index of the first part of <code>path</code> among all parts of the store.
+	 */
+	int firstPart(int path)
+	{
+		return m_pathStart.get(path);
+	}
+
+	public int getPartCount(int path)
+	{
+		return m_pathStart.get(path + 1) - m_pathStart.get(path);
+	}
+
+	/**
+	 * Delay of a part, by its index among all parts of the store.
+	 */
+	int partDelay(int part)
+	{
+		return m_delays.get(part);
+	}
+
+	/**
+	 * Number of codes of a part in the arena; the number of digits too unless the path has
+	 * named variables.
+	 */
+	int partLength(int part)
+	{
+		return m_partStart.get(part + 1) - m_partStart.get(part);
+	}
+
+	/**
+	 * Code <code>j</code> of a part, by the part's index among all parts of the store.
+	 */
+	int partCode(int part, int j)
+	{
+		return code(m_partStart.get(part) + j);
+	}
+
+	private int code(int index)
+	{
+		return (m_codes.get(index >> 1) >> ((index & 1) << 2)) & 0xF;
+	}
+
+	/**
+	 * A view of <code>path</code> with <code>x</code> and <code>y</code> bound for one call.
+	 *
+	 * @throws IllegalStateException
+	 *  if the path has named variables.
+	 */
+	public Path view(int path, int x, int y)
+	{
+		return view(path, x, y, null);
+	}
+
+	/**
+	 * <code>path</code> with <code>x</code>, <code>y</code> and its named variables bound for
+	 * one call: a view of the store if it has no named variables, otherwise a new {@link ListPath}.
+	 *
+	 * @param values
+	 *  Digits of each named variable, by {@link PathTemplate#variableIndex(int)}; may be null
+	 *  if the path has none.
+	 * @throws IllegalStateException
+	 *  if a named variable of the path has no value.
+	 */
+	public Path view(int path, int x, int y, String[] values)
+	{
+		if (hasNamedVariables(path))
+			return getTemplate(path).bind(x, y, values);
+		return new PackedPath(this, path, x, y);
+	}
+
+	/**
+	 * Whether <code>path</code> uses any named variable.
+	 */
+	public boolean hasNamedVariables(int path)
+	{
+		if (m_variableNames.length == 0)
+			return false;
+		// Only a CODE_VAR can put a CODE_VAR among the index codes, so a plain scan will do
+		int end = m_partStart.get(m_pathStart.get(path + 1));
+		for (int index = m_partStart.get(m_pathStart.get(path)); index < end; index++) {
+			if (code(index) == CODE_VAR)
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * The {@link PathTemplate} codes of the named variables <code>path</code> uses, each once.
+	 */
+	public int[] getVariables(int path)
+	{
+		int[] variables = new int[0];
+		if (!hasNamedVariables(path))
+			return variables;
+		int end = m_partStart.get(m_pathStart.get(path + 1));
+		for (int index = m_partStart.get(m_pathStart.get(path)); index < end; index++) {
+			if (code(index) != CODE_VAR)
+				continue;
+			int variable = m_variableCodes[code(index + 1) | (code(index + 2) << 4)];
+			index += 2;
+			boolean seen = false;
+			for (int v : variables)
+				seen |= (v == variable);
+			if (!seen) {
+				variables = Arrays.copyOf(variables, variables.length + 1);
+				variables[variables.length - 1] = variable;
+			}
+		}
+		return variables;
+	}
+
+	/**
+	 * The {@link PathId stable ID} of <code>path</code>, hashed straight from the arena.
+	 */
+	public long getId(int path)
+	{
+		long id = PathId.start();
+		int first = m_pathStart.get(path);
+		int parts = getPartCount(path);
+		for (int p = first; p < first + parts; p++) {
+			id = PathId.part(id, m_delays.get(p));
+			int end = m_partStart.get(p + 1);
+			for (int index = m_partStart.get(p); index < end; index++) {
+				int code = code(index);
+				if (code == CODE_VAR) {
+					id = PathId.variable(id, m_variableNames[code(index + 1) | (code(index + 2) << 4)]);
+					index += 2;
+				}
+				else
+					id = PathId.code(id, (code == CODE_X) ? PathTemplate.VAR_X : (code == CODE_Y) ? PathTemplate.VAR_Y : code);
+			}
+		}
+		return id;
+	}
+
+	/**
+	 * Names of the named variables of the store.
+	 */
+	public String[] getVariableNames()
+	{
+		return m_variableNames.clone();
+	}
+
+	/**
+	 * <code>path</code> unpacked, with the placeholders left symbolic.
+	 */
+	public PathTemplate getTemplate(int path)
+	{
+		int first = m_pathStart.get(path);
+		int parts = getPartCount(path);
+		int[][] codes = new int[parts][];
+		int[] delays = new int[parts];
+		for (int p = 0; p < parts; p++) {
+			int length = partLength(first + p);
+			int[] partCodes = new int[length];
+			int n = 0;
+			for (int j = 0; j < length; j++) {
+				int code = partCode(first + p, j);
+				if (code == CODE_VAR) {
+					partCodes[n++] = m_variableCodes[partCode(first + p, j + 1) | (partCode(first + p, j + 2) << 4)];
+					j += 2;
+				}
+				else
+					partCodes[n++] = (code == CODE_X) ? PathTemplate.VAR_X : (code == CODE_Y) ? PathTemplate.VAR_Y : code;
+			}
+			codes[p] = Arrays.copyOf(partCodes, n);
+			delays[p] = partDelay(first + p);
+		}
+		return new PathTemplate(codes, delays);
+	}
+
+	/**
+	 * Number of parts over all paths.
+	 */
+	int getTotalPartCount()
+	{
+		return m_delays.limit();
+	}
+
+	/**
+	 * Number of codes over all parts.
+	 */
+	int getTotalCodeCount()
+	{
+		return m_partStart.get(m_partStart.limit() - 1);
+	}
+
+	/**
+	 * The store's buffers, for {@link CatalogFile}; read them with absolute gets only.
+	 */
+	ByteBuffer codes()
+	{
+		return m_codes.duplicate();
+	}
+
+	IntBuffer partStarts()
+	{
+		return m_partStart.duplicate();
+	}
+
+	IntBuffer delays()
+	{
+		return m_delays.duplicate();
+	}
+
+	IntBuffer pathStarts()
+	{
+		return m_pathStart.duplicate();
+	}
+
+	/**
+	 * Approximate size of the store's arrays, in bytes.
+	 */
+	public long getHeapBytes()
+	{
+		return m_codes.limit() + (4L * (m_partStart.limit() + m_delays.limit() + m_pathStart.limit()));
+	}
+
+	/**
+	 * Collects paths one at a time and packs them into a {@link PathStore}.
+	 */
+	public static class Builder {
+		private byte[] m_codes = new byte[256];
+		private int m_codeCount = 0;
+		private int[] m_partStart = new int[64];
+		private int[] m_delays = new int[64];
+		private int m_partCount = 0;
+		private int[] m_pathStart = new int[16];
+		private int m_pathCount = 0;
+		private final Map<Integer, Integer> m_variableIndexes = new HashMap<Integer, Integer>();
+		private final List<String> m_variableNames = new ArrayList<String>();
+
+		/**
+		 * Appends a path.
+		 *
+		 * @throws IllegalArgumentException
+		 *  if the path would bring the store's named variables over {@link #MAX_VARIABLES}.
+		 */
+		public Builder add(PathTemplate path)
+		{
+			if (m_pathCount + 1 >= m_pathStart.length)
+				m_pathStart = Arrays.copyOf(m_pathStart, m_pathStart.length * 2);
+			m_pathStart[m_pathCount++] = m_partCount;
+			for (int p = 0; p < path.size(); p++) {
+				if (m_partCount + 1 >= m_partStart.length) {
+					m_partStart = Arrays.copyOf(m_partStart, m_partStart.length * 2);
+					m_delays = Arrays.copyOf(m_delays, m_delays.length * 2);
+				}
+				m_partStart[m_partCount] = m_codeCount;
+				m_delays[m_partCount] = path.getDelay(p);
+				m_partCount++;
+				for (int j = 0; j < path.getCodeCount(p); j++) {
+					int code = path.getCode(p, j);
+					if (PathTemplate.isNamedVariable(code)) {
+						int variable = variableIndex(code);
+						appendCode(CODE_VAR);
+						appendCode(variable & 0xF);
+						appendCode(variable >> 4);
+					}
+					else
+						appendCode((code == PathTemplate.VAR_X) ? CODE_X : (code == PathTemplate.VAR_Y) ? CODE_Y : code);
+				}
+			}
+			return this;
+		}
+
+		private int variableIndex(int code)
+		{
+			Integer index = m_variableIndexes.get(code);
+			if (index == null) {
+				if (m_variableNames.size() == MAX_VARIABLES)
+					throw new IllegalArgumentException("more than " + MAX_VARIABLES + " named variables");
+				index = m_variableNames.size();
+				m_variableIndexes.put(code, index);
+				m_variableNames.add(PathTemplate.variableName(code));
+			}
+			return index;
+		}
+
+		private void appendCode(int code)
+		{
+			int index = m_codeCount++;
+			if ((index >> 1) >= m_codes.length)
+				m_codes = Arrays.copyOf(m_codes, m_codes.length * 2);
+			m_codes[index >> 1] |= (byte)(code << ((index & 1) << 2));
+		}
+
+		public int size()
+		{
+			return m_pathCount;
+		}
+
+		/**
+		 * The packed store, with its arrays trimmed to size.
+		 */
+		public PathStore build()
+		{
+			int[] partStart = Arrays.copyOf(m_partStart, m_partCount + 1);
+			partStart[m_partCount] = m_codeCount;
+			int[] pathStart = Arrays.copyOf(m_pathStart, m_pathCount + 1);
+			pathStart[m_pathCount] = m_partCount;
+			return new PathStore(ByteBuffer.wrap(Arrays.copyOf(m_codes, (m_codeCount + 1) >> 1)), IntBuffer.wrap(partStart),
+					IntBuffer.wrap(Arrays.copyOf(m_delays, m_partCount)), IntBuffer.wrap(pathStart),
+					m_variableNames.toArray(new String[m_variableNames.size()]));
+		}
+	}
+}
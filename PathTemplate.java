@@ -0,0 +1,242 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * One line of the path file, compiled: the parts of an IVR path with their digits and delays,
+ * where the customer-ID placeholders <code>x</code> and <code>y</code> and named variables
+ * such as <code>${pin}</code> are kept symbolic.
+ * <br /><br />
+ * Immutable, so one instance is shared by every call that picks it; {@link #bind(int, int, String[])}
+ * turns it into the concrete {@link Path} for a single call.
+ * <br /><br />
+ * A named variable stands for all the digits of its value, however many there are; the values
+ * usually come from a {@link DataFeeds data feed}. Each name gets a code of its own, below
+ * {@link #VAR_NAMED}, the first time it is seen, and keeps it for the life of the process.
+ */
+public class PathTemplate {
+
+	/** Code of the <code>x</code> placeholder (tens digit of the customer ID). */
+	public static final int VAR_X = -1;
+	/** Code of the <code>y</code> placeholder (units digit of the customer ID). */
+	public static final int VAR_Y = -2;
+	/** Code of the first named variable; the next ones count down from here. */
+	public static final int VAR_NAMED = -3;
+
+	private static final ConcurrentMap<String, Integer> s_variableCodes = new ConcurrentHashMap<String, Integer>();
+	private static final List<String> s_variableNames = new ArrayList<String>();
+
+	private final int[][] m_codes;
+	private final int[] m_delays;
+	private final boolean m_hasVariables;
+
+	/**
+	 * @param codes
+	 *  Per part, the digits 0-9, {@link #VAR_X}/{@link #VAR_Y} or the code of a named
+	 *  variable, see {@link #variable(String)}. Copied.
+	 * @param delays
+	 *  Per part, the pause in milliseconds before the part is sent. Copied.
+	 */
+	public PathTemplate(int[][] codes, int[] delays)
+	{
+		if (codes.length != delays.length)
+			throw new IllegalArgumentException("codes and delays differ in length");
+		m_codes = new int[codes.length][];
+		boolean vars = false;
+		for (int i = 0; i < codes.length; i++) {
+			m_codes[i] = codes[i].clone();
+			for (int code : m_codes[i]) {
+				if (code < 0)
+					vars = true;
+				else if (code > 9)
+					throw new IllegalArgumentException("not a DTMF digit: " + code);
+			}
+		}
+		m_delays = delays.clone();
+		m_hasVariables = vars;
+	}
+
+	public int size()
+	{
+		return m_codes.length;
+	}
+
+	public int getDelay(int part)
+	{
+		return m_delays[part];
+	}
+
+	public int getCodeCount(int part)
+	{
+		return m_codes[part].length;
+	}
+
+	/**
+	 * Code <code>j</code> of a part: a digit, {@link #VAR_X}, {@link #VAR_Y} or a named variable.
+	 */
+	public int getCode(int part, int j)
+	{
+		return m_codes[part][j];
+	}
+
+	public boolean hasVariables()
+	{
+		return m_hasVariables;
+	}
+
+	/**
+	 * The path's {@link PathId stable ID}.
+	 */
+	public long getId()
+	{
+		long id = PathId.start();
+		for (int i = 0; i < m_codes.length; i++) {
+			id = PathId.part(id, m_delays[i]);
+			for (int code : m_codes[i])
+				id = isNamedVariable(code) ? PathId.variable(id, variableName(code)) : PathId.code(id, code);
+		}
+		return id;
+	}
+
+	/**
+	 * Code of the named variable <code>name</code>, assigned on first use.
+	 */
+	public static int variable(String name)
+	{
+		Integer code = s_variableCodes.get(name);
+		if (code == null) {
+			synchronized (s_variableNames) {
+				code = s_variableCodes.get(name);
+				if (code == null) {
+					code = VAR_NAMED - s_variableNames.size();
+					s_variableNames.add(name);
+					s_variableCodes.put(name, code);
+				}
+			}
+		}
+		return code;
+	}
+
+	public static boolean isNamedVariable(int code)
+	{
+		return code <= VAR_NAMED;
+	}
+
+	/**
+	 * Index of a named variable among all names seen so far, counting from 0; the index into
+	 * the <code>values</code> of {@link #bind(int, int, String[])}.
+	 */
+	public static int variableIndex(int code)
+	{
+		return VAR_NAMED - code;
+	}
+
+	public static String variableName(int code)
+	{
+		synchronized (s_variableNames) {
+			return s_variableNames.get(variableIndex(code));
+		}
+	}
+
+	/**
+	 * Path-file notation of one code: a digit, <code>x</code>, <code>y</code> or <code>${name}</code>.
+	 */
+	static StringBuilder appendCode(StringBuilder sb, int code)
+	{
+		if (code == VAR_X)
+			return sb.append('x');
+		if (code == VAR_Y)
+			return sb.append('y');
+		if (isNamedVariable(code))
+			return sb.append("${").append(variableName(code)).append('}');
+		return sb.append(code);
+	}
+
+	/**
+	 * The concrete path for one call, with <code>x</code> and <code>y</code> replaced.
+	 *
+	 * @throws IllegalStateException
+	 *  if the path has named variables.
+	 */
+	public Path bind(int x, int y)
+	{
+		return bind(x, y, null);
+	}
+
+	/**
+	 * The concrete path for one call, with <code>x</code>, <code>y</code> and the named
+	 * variables replaced.
+	 *
+	 * @param values
+	 *  Digits of each named variable, by {@link #variableIndex(int)}; may be null if the path
+	 *  has none.
+	 * @throws IllegalStateException
+	 *  if a named variable of the path has no value.
+	 * @throws IllegalArgumentException
+	 *  if a value is not all digits.
+	 */
+	public Path bind(int x, int y, String[] values)
+	{
+		ListPath path = new ListPath();
+		for (int i = 0; i < m_codes.length; i++) {
+			int[] codes = m_codes[i];
+			int length = 0;
+			for (int code : codes)
+				length += isNamedVariable(code) ? value(code, values).length() : 1;
+			int[] digits = new int[length];
+			int n = 0;
+			for (int code : codes) {
+				switch (code) {
+				case VAR_X:
+					digits[n++] = x;
+					break;
+				case VAR_Y:
+					digits[n++] = y;
+					break;
+				default:
+					if (code >= 0)
+						digits[n++] = code;
+					else {
+						String value = value(code, values);
+						for (int k = 0; k < value.length(); k++) {
+							char c = value.charAt(k);
+							if (c < '0' || c > '9')
+								throw new IllegalArgumentException("value of ${" + variableName(code) + "} is not all digits: '" + value + "'");
+							digits[n++] = c - '0';
+						}
+					}
+				}
+			}
+			path.Add(digits, m_delays[i]);
+		}
+		return path;
+	}
+
+	private static String value(int code, String[] values)
+	{
+		int index = variableIndex(code);
+		String value = (values == null || index >= values.length) ? null : values[index];
+		if (value == null)
+			throw new IllegalStateException("no value for ${" + variableName(code) + "}");
+		return value;
+	}
+
+	/**
+	 * Path-file notation, e.g. <code>[2,2,2,2,x,y][1][8,1,1]</code>.
+	 */
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int[] codes : m_codes) {
+			sb.append('[');
+			for (int j = 0; j < codes.length; j++) {
+				if (j > 0)
+					sb.append(',');
+				appendCode(sb, codes[j]);
+			}
+			sb.append(']');
+		}
+		return sb.toString();
+	}
+}
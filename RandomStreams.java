@@ -0,0 +1,76 @@
+import java.util.SplittableRandom;
+
+/**
+ * Every random choice of a run, derived from one master seed.
+ * <br /><br />
+ * Each call gets its own generator, seeded from the master seed and the call's index (the order
+ * in which the engine handed it out), so what a call picks does not depend on which thread runs
+ * it, on how many threads there are, or on what other calls drew before it. Re-running with the
+ * same <code>callgen.seed</code> repeats every call's path and customer ID. Nothing is shared
+ * between threads, so there is no contention either.
+ */
+public class RandomStreams {
+
+	// Independent families of streams
+	private static final long CALLS = 1;
+	private static final long ARRIVALS = 2;
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private final long mSeed;
+
+	public RandomStreams(long seed)
+	{
+		mSeed = seed;
+	}
+
+	/**
+	 * Streams seeded from <code>callgen.seed</code>, or from a fresh random seed if it is not set.
+	 */
+	public static RandomStreams fromConfig()
+	{
+		String seed = GeneratorConfig.getString("seed", null);
+		if (seed == null || seed.trim().isEmpty())
+			return new RandomStreams(new SplittableRandom().nextLong());
+		return new RandomStreams(Long.parseLong(seed.trim()));
+	}
+
+	/**
+	 * The master seed; pass it back as <code>-Dcallgen.seed</code> to repeat the run.
+	 */
+	public long getSeed()
+	{
+		return mSeed;
+	}
+
+	/**
+	 * Generator of the call with the given index.
+	 */
+	public SplittableRandom forCall(long callIndex)
+	{
+		return stream(CALLS, callIndex);
+	}
+
+	/**
+	 * Generator of the open-loop arrival times.
+	 */
+	public SplittableRandom forArrivals()
+	{
+		return stream(ARRIVALS, 0);
+	}
+
+	private SplittableRandom stream(long family, long index)
+	{
+		return new SplittableRandom(mix64(mix64(mSeed + (family * GOLDEN_GAMMA)) + (index * GOLDEN_GAMMA)));
+	}
+
+	/**
+	 * SplitMix64 finalizer: spreads nearby inputs (consecutive call indexes) over the whole range.
+	 */
+	static long mix64(long z)
+	{
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+}
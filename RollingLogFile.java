@@ -0,0 +1,216 @@
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * A log file that is rotated by size and/or age, with rotated segments compressed in the
+ * background.
+ * <br /><br />
+ * Lines always go to the file named when the log was created, e.g.
+ * <code>Logger-20240517-140322-4711.txt</code>, so <code>tail -F</code> keeps following it. When
+ * the owner calls {@link #rollIfDue()} between two lines and the file has reached its size or
+ * age limit, the file is renamed to the next segment name
+ * (<code>Logger-20240517-140322-4711.1.txt</code>, <code>.2.txt</code>, ...) and a new one is
+ * started under the original name. A low-priority thread then gzips the segment
+ * (<code>.1.txt.gz</code>) and deletes the uncompressed copy; the writing thread only renames
+ * and opens files.
+ * <br /><br />
+ * Not thread-safe: meant for the one thread that writes the log. {@link #close()} waits for
+ * pending compressions.
+ */
+public class RollingLogFile extends Writer {
+
+	public static final String MY_CLASS_TAG = "RollingLogFile";
+
+	private final String mFileName;
+	private final long mMaxBytes;
+	private final long mMaxAgeNanos;
+	private final boolean mCompress;
+	private final ExecutorService mCompressor;
+
+	private Writer mOut;
+	private long mWritten;
+	private long mOpenedNanos;
+	private int mSegment = 0;
+
+	/**
+	 * Opens (truncates) the file.
+	 *
+	 * @param maxBytes
+	 *  Size at which the file is rotated, or 0 for no limit.
+	 * @param maxAgeMillis
+	 *  Age at which the file is rotated, or 0 for no limit.
+	 * @param compress
+	 *  Whether rotated segments are gzipped.
+	 */
+	public RollingLogFile(String fileName, long maxBytes, long maxAgeMillis, boolean compress) throws IOException
+	{
+		mFileName = fileName;
+		mMaxBytes = maxBytes;
+		mMaxAgeNanos = TimeUnit.MILLISECONDS.toNanos(maxAgeMillis);
+		mCompress = compress;
+		mCompressor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, MY_CLASS_TAG + "-gzip");
+				t.setDaemon(true);
+				t.setPriority(Thread.MIN_PRIORITY);
+				return t;
+			}
+		});
+		open();
+	}
+
+	/**
+	 * The text log of this run: <code>callgen.logFile</code> (default
+	 * <code>Logger-{run}.txt</code>, see {@link GeneratorConfig#runFileName(String)}), rotated at
+	 * <code>callgen.logMaxMB</code> megabytes and/or every <code>callgen.logRotateMinutes</code>
+	 * minutes (0, the default, for never), and gzipped unless <code>callgen.logCompress=none</code>.
+	 * Only gzip is available, since it is the only compressor the JDK ships.
+	 */
+	public static RollingLogFile fromConfig() throws IOException
+	{
+		String compression = GeneratorConfig.getString("logCompress", "gzip").trim().toLowerCase(Locale.ROOT);
+		if (!compression.equals("gzip") && !compression.equals("none"))
+			throw new IllegalArgumentException(GeneratorConfig.PREFIX + "logCompress: gzip or none, not " + compression);
+		return new RollingLogFile(GeneratorConfig.runFileName(GeneratorConfig.getString("logFile", "Logger-{run}.txt")),
+				GeneratorConfig.getLong("logMaxMB", 0) << 20,
+				TimeUnit.MINUTES.toMillis(GeneratorConfig.getLong("logRotateMinutes", 0)),
+				compression.equals("gzip"));
+	}
+
+	private void open() throws IOException
+	{
+		open(false);
+	}
+
+	private void open(boolean append) throws IOException
+	{
+		mOut = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(mFileName, append), "UTF-8"), 1 << 16);
+		mWritten = 0;
+		mOpenedNanos = System.nanoTime();
+	}
+
+	public String getFileName()
+	{
+		return mFileName;
+	}
+
+	public void write(char[] cbuf, int off, int len) throws IOException
+	{
+		mOut.write(cbuf, off, len);
+		mWritten += len;
+	}
+
+	public void write(String str, int off, int len) throws IOException
+	{
+		mOut.write(str, off, len);
+		mWritten += len;
+	}
+
+	/**
+	 * Rotates the file if it has reached its size or age limit. Call between lines only.
+	 *
+	 * @return whether the file was rotated.
+	 */
+	public boolean rollIfDue() throws IOException
+	{
+		boolean due = (mMaxBytes > 0 && mWritten >= mMaxBytes)
+				|| (mMaxAgeNanos > 0 && System.nanoTime() - mOpenedNanos >= mMaxAgeNanos);
+		if (due)
+			roll();
+		return due;
+	}
+
+	private void roll() throws IOException
+	{
+		mOut.close();
+		final File segment = new File(segmentName(++mSegment));
+		if (!new File(mFileName).renameTo(segment)) {
+			// Carry on in the same file rather than lose lines; try again at the next limit
+			open(true);
+			throw new IOException("cannot rename " + mFileName + " to " + segment);
+		}
+		open();
+		if (mCompress) {
+			mCompressor.execute(new Runnable() {
+				public void run() {
+					gzip(segment);
+				}
+			});
+		}
+	}
+
+	/**
+	 * <code>Logger-x.txt</code> becomes <code>Logger-x.3.txt</code>; a name without an
+	 * extension gets <code>.3</code> appended.
+	 */
+	private String segmentName(int segment)
+	{
+		int dot = mFileName.lastIndexOf('.');
+		if (dot <= mFileName.lastIndexOf(File.separatorChar) + 1)
+			return mFileName + "." + segment;
+		return mFileName.substring(0, dot) + "." + segment + mFileName.substring(dot);
+	}
+
+	private static void gzip(File file)
+	{
+		File gz = new File(file.getPath() + ".gz");
+		File tmp = new File(gz.getPath() + ".tmp");
+		try {
+			InputStream in = new FileInputStream(file);
+			try {
+				OutputStream out = new GZIPOutputStream(new BufferedOutputStream(new FileOutputStream(tmp), 1 << 16), 1 << 16);
+				try {
+					byte[] buffer = new byte[1 << 16];
+					int n;
+					while ((n = in.read(buffer)) > 0)
+						out.write(buffer, 0, n);
+				} finally {
+					out.close();
+				}
+			} finally {
+				in.close();
+			}
+			if (!tmp.renameTo(gz))
+				throw new IOException("cannot rename " + tmp + " to " + gz);
+			if (!file.delete())
+				throw new IOException("cannot delete " + file);
+		} catch (IOException e) {
+			// The uncompressed segment stays
+			System.err.printf("%s: %s: %s%n", MY_CLASS_TAG, file, e.getMessage());
+			tmp.delete();
+		}
+	}
+
+	public void flush() throws IOException
+	{
+		mOut.flush();
+	}
+
+	/**
+	 * Closes the file and waits for the segments being compressed.
+	 */
+	public void close() throws IOException
+	{
+		mOut.close();
+		mCompressor.shutdown();
+		try {
+			mCompressor.awaitTermination(10, TimeUnit.MINUTES);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+}
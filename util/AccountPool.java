@@ -0,0 +1,357 @@
+package util;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pool of logged-in accounts that calls are spread over.
+ * <br /><br />
+ * Every account has its own {@link MySession} (and therefore its own SkypeKit runtime), and
+ * carries one call at a time. The pool:
+ * <ul>
+ *   <li>reads account names, passwords and runtime ports from a credentials file</li>
+ *   <li>logs the accounts in concurrently, at most <code>parallelism</code> at a time, so
+ *       start-up takes a few login times rather than one per account</li>
+ *   <li>hands idle accounts out to calls, {@link Policy#ROUND_ROBIN round-robin} or
+ *       {@link Policy#LEAST_LOADED least-loaded}</li>
+ *   <li>takes an account out of rotation once it is no longer logged in, e.g. because it was
+ *       kicked; the reason is reported from {@link MySession#myLogoutReason}</li>
+ * </ul>
+ *
+ * @since 4.0
+ */
+public class AccountPool {
+	/**
+	 * Info/Debug console output message prefix/identifier tag.
+	 * Corresponds to class name.
+	 *
+	 * @since 4.0
+	 */
+	public static final String MY_CLASS_TAG = "AccountPool";
+
+	/**
+	 * How idle accounts are handed out.
+	 *
+	 * @since 4.0
+	 */
+	public enum Policy {
+		/** Cycle through the accounts in file order. */
+		ROUND_ROBIN,
+		/** The idle account that has placed the fewest calls so far. */
+		LEAST_LOADED
+	}
+
+	/**
+	 * One line of the credentials file.
+	 *
+	 * @since 4.0
+	 */
+	public static class Credentials {
+		public final String accountName;
+		public final String password;
+		public final int portNum;
+
+		public Credentials(String accountName, String password, int portNum) {
+			this.accountName = accountName;
+			this.password = password;
+			this.portNum = portNum;
+		}
+	}
+
+	private final Policy myPolicy;
+
+	/**
+	 * Every session the pool created or was given, logged in or not; for tear-down.
+	 */
+	private final List<MySession> myAllSessions = new ArrayList<MySession>();
+
+	/**
+	 * Sessions in rotation. Guarded by <code>this</code>, as are the two maps below.
+	 */
+	private final List<MySession> myActive = new ArrayList<MySession>();
+	private final Map<MySession, Boolean> myBusy = new IdentityHashMap<MySession, Boolean>();
+	private final Map<MySession, int[]> myCallCounts = new IdentityHashMap<MySession, int[]>();
+	private int myNext = 0;
+
+	/**
+	 * Creates an empty pool; fill it through {@link #loginAll(List, String, String, int)}.
+	 *
+	 * @since 4.0
+	 */
+	public AccountPool(Policy policy) {
+		myPolicy = policy;
+	}
+
+	/**
+	 * Creates a pool over sessions that are already logged in.
+	 *
+	 * @since 4.0
+	 */
+	public AccountPool(Policy policy, List<MySession> loggedIn) {
+		this(policy);
+		for (MySession session : loggedIn) {
+			myAllSessions.add(session);
+			addToRotation(session);
+		}
+	}
+
+	/**
+	 * Reads a credentials file: one account per line as
+	 * <code>accountName password [port]</code>, separated by white space. Blank lines and lines
+	 * starting with <code>#</code> are skipped. Accounts without a port get
+	 * <code>basePort</code>, <code>basePort + 1</code>, ... in file order.
+	 *
+	 * @since 4.0
+	 */
+	public static List<Credentials> readCredentials(String fileName, int basePort) throws IOException {
+		List<Credentials> credentials = new ArrayList<Credentials>();
+		BufferedReader br = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), "UTF-8"));
+		try {
+			String line;
+			int lineNo = 0;
+			while ((line = br.readLine()) != null) {
+				lineNo++;
+				line = line.trim();
+				if ((line.length() == 0) || line.startsWith("#")) {
+					continue;
+				}
+				String[] fields = line.split("\\s+");
+				if ((fields.length < 2) || (fields.length > 3)) {
+					throw new IOException(String.format("%s:%d: expected 'accountName password [port]'", fileName, lineNo));
+				}
+				int portNum = basePort + credentials.size();
+				if (fields.length == 3) {
+					try {
+						portNum = Integer.parseInt(fields[2]);
+					}
+					catch (NumberFormatException e) {
+						throw new IOException(String.format("%s:%d: bad port '%s'", fileName, lineNo, fields[2]));
+					}
+				}
+				credentials.add(new Credentials(fields[0], fields[1], portNum));
+			}
+		}
+		finally {
+			br.close();
+		}
+		return (credentials);
+	}
+
+	/**
+	 * Creates a session for every account and logs them in, <code>parallelism</code> at a time.
+	 * Accounts whose session cannot be created or that fail to log in are left out of rotation.
+	 *
+	 * @param credentials
+	 * 	Accounts to log in.
+	 * @param tutorialTag
+	 * 	Console tag of the sessions; with more than one account, <code>-0</code>, <code>-1</code>, ...
+	 * 	are appended in file order.
+	 * @param pemPathName
+	 * 	Pathname of the certificate file.
+	 * @param parallelism
+	 * 	Maximum number of logins in progress at once.
+	 *
+	 * @return
+	 * 	Number of accounts logged in.
+	 *
+	 * @since 4.0
+	 */
+	public int loginAll(List<Credentials> credentials, final String tutorialTag, final String pemPathName,
+			int parallelism) throws InterruptedException {
+		long start = System.currentTimeMillis();
+		ExecutorService loginPool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, credentials.size())));
+		List<Future<MySession>> results = new ArrayList<Future<MySession>>();
+		for (int i = 0; i < credentials.size(); i++) {
+			final Credentials account = credentials.get(i);
+			final String tag = (credentials.size() == 1) ? tutorialTag : String.format("%s-%d", tutorialTag, i);
+			final MySession session = new MySession();
+			synchronized (this) {
+				myAllSessions.add(session);
+			}
+			results.add(loginPool.submit(new Callable<MySession>() {
+				public MySession call() {
+					MySession.myConsole.printf("%s: Creating session - Account = %s, port = %d%n",
+							tag, account.accountName, account.portNum);
+					if (!session.doCreateSession(tag, account.accountName, pemPathName, account.portNum)) {
+						return (null);
+					}
+					return (session.mySignInMgr.Login(tag, session, account.password) ? session : null);
+				}
+			}));
+		}
+		loginPool.shutdown();
+
+		int loggedIn = 0;
+		for (Future<MySession> result : results) {
+			MySession session;
+			try {
+				session = result.get();
+			}
+			catch (ExecutionException e) {
+				MySession.myConsole.printf("%s: Login failed: %s%n", MY_CLASS_TAG, e.getCause());
+				continue;
+			}
+			if (session != null) {
+				addToRotation(session);
+				loggedIn++;
+			}
+		}
+		MySession.myConsole.printf("%s: %d of %d accounts logged in after %d ms (%d in parallel)%n",
+				MY_CLASS_TAG, loggedIn, credentials.size(), (System.currentTimeMillis() - start), parallelism);
+		return (loggedIn);
+	}
+
+	private synchronized void addToRotation(MySession session) {
+		myActive.add(session);
+		myCallCounts.put(session, new int[1]);
+	}
+
+	/**
+	 * Hands out an idle account, waiting until one is free.
+	 *
+	 * @return
+	 * 	The account's session, or null if no account is left in rotation.
+	 *
+	 * @since 4.0
+	 */
+	public synchronized MySession acquire() throws InterruptedException {
+		while (true) {
+			if (myActive.isEmpty()) {
+				return (null);
+			}
+			MySession pick = (myPolicy == Policy.LEAST_LOADED) ? pickLeastLoaded() : pickRoundRobin();
+			if (pick == null) {
+				wait();
+				continue;
+			}
+			if (!isUsable(pick)) {
+				retire(pick);
+				continue;
+			}
+			myBusy.put(pick, Boolean.TRUE);
+			myCallCounts.get(pick)[0]++;
+			return (pick);
+		}
+	}
+
+	/**
+	 * Returns an account handed out by {@link #acquire()}.
+	 *
+	 * @since 4.0
+	 */
+	public synchronized void release(MySession session) {
+		myBusy.remove(session);
+		if (!isUsable(session)) {
+			retire(session);
+		}
+		notifyAll();
+	}
+
+	private MySession pickRoundRobin() {
+		int n = myActive.size();
+		for (int k = 0; k < n; k++) {
+			int idx = (myNext + k) % n;
+			MySession session = myActive.get(idx);
+			if (!myBusy.containsKey(session)) {
+				myNext = idx + 1;
+				return (session);
+			}
+		}
+		return (null);
+	}
+
+	private MySession pickLeastLoaded() {
+		MySession best = null;
+		int bestCount = Integer.MAX_VALUE;
+		for (MySession session : myActive) {
+			int count = myCallCounts.get(session)[0];
+			if (!myBusy.containsKey(session) && (count < bestCount)) {
+				best = session;
+				bestCount = count;
+			}
+		}
+		return (best);
+	}
+
+	/**
+	 * An account stays in rotation while it is logged in. While calls are running nothing logs
+	 * the pool's accounts out, so one that is no longer logged in was kicked (or lost its server,
+	 * or had its password changed - {@link MySession#myLogoutReason} says which) and is retired.
+	 */
+	private boolean isUsable(MySession session) {
+		return (session.isLoggedIn());
+	}
+
+	private void retire(MySession session) {
+		if (myActive.remove(session)) {
+			MySession.myConsole.printf("%s: Taking %s out of rotation (status %s, logout reason %s); %d accounts left%n",
+					MY_CLASS_TAG, session.myAccountName, session.getLoginStatus(), session.myLogoutReason, myActive.size());
+			if (myNext > myActive.size()) {
+				myNext = 0;
+			}
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Number of accounts in rotation.
+	 *
+	 * @since 4.0
+	 */
+	public synchronized int size() {
+		return (myActive.size());
+	}
+
+	/**
+	 * Accounts in rotation.
+	 *
+	 * @since 4.0
+	 */
+	public synchronized List<MySession> getActiveSessions() {
+		return (Collections.unmodifiableList(new ArrayList<MySession>(myActive)));
+	}
+
+	/**
+	 * Every session created by or given to the pool, including the ones that failed to log in or
+	 * were retired.
+	 *
+	 * @since 4.0
+	 */
+	public synchronized List<MySession> getAllSessions() {
+		return (Collections.unmodifiableList(new ArrayList<MySession>(myAllSessions)));
+	}
+
+	/**
+	 * Logs out every logged-in account, <code>parallelism</code> at a time.
+	 *
+	 * @since 4.0
+	 */
+	public void logoutAll(int parallelism) throws InterruptedException {
+		List<MySession> sessions = getAllSessions();
+		ExecutorService logoutPool = Executors.newFixedThreadPool(Math.max(1, Math.min(parallelism, sessions.size())));
+		for (final MySession session : sessions) {
+			if (session.isLoggedIn()) {
+				logoutPool.execute(new Runnable() {
+					public void run() {
+						session.mySignInMgr.Logout(session.myTutorialTag, session);
+					}
+				});
+			}
+		}
+		logoutPool.shutdown();
+		logoutPool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+	}
+}
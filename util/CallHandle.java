@@ -0,0 +1,234 @@
+package util;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import com.skype.api.Conversation;
+
+/**
+ * Completion handle for one outgoing call.
+ * <br /><br />
+ * Created by {@link MySession#beginCall(Conversation)} just before the call target is rung, and completed by
+ * the Conversation event handlers in {@link Listeners} when the live session goes to
+ * <code>RECENTLY_LIVE</code> or <code>NONE</code>. A handle belongs to one Conversation, and
+ * only ends after that Conversation has reported the call starting (or going live), so a
+ * late end event of an earlier call on the same session cannot complete it. The calling thread waits on the handle
+ * instead of polling {@link MySession#callActive}, so it resumes the moment the call ends and
+ * the measured duration is exact.
+ *
+ * @since 4.0
+ */
+public class CallHandle {
+	/**
+	 * Released once, when the call ends.
+	 *
+	 * @since 4.0
+	 */
+	private final CountDownLatch myEnded = new CountDownLatch(1);
+
+	/**
+	 * Released once, when the live session comes up (the target answered).
+	 *
+	 * @since 4.0
+	 */
+	private final CountDownLatch myLive = new CountDownLatch(1);
+
+	/**
+	 * <code>System.nanoTime()</code> at which the call was started (rung).
+	 *
+	 * @since 4.0
+	 */
+	private final long myStartNanos;
+
+	/**
+	 * <code>System.nanoTime()</code> at which the call ended; only meaningful once {@link #isEnded()}.
+	 *
+	 * @since 4.0
+	 */
+	private volatile long myEndNanos;
+
+	/**
+	 * <code>System.nanoTime()</code> at which the live session came up; only meaningful once {@link #isLive()}.
+	 *
+	 * @since 4.0
+	 */
+	private volatile long myLiveNanos;
+
+	/**
+	 * Whether the live session came up before the call ended.
+	 *
+	 * @since 4.0
+	 */
+	private volatile boolean myAnswered = false;
+
+	/**
+	 * The Conversation the call is placed in.
+	 *
+	 * @since 4.0
+	 */
+	private final Conversation myConversation;
+
+	/**
+	 * Whether the Conversation has reported this call starting or going live.
+	 *
+	 * @since 4.0
+	 */
+	private volatile boolean myStarted = false;
+
+	public CallHandle(Conversation conversation) {
+		myConversation = conversation;
+		myStartNanos = System.nanoTime();
+	}
+
+	/**
+	 * Whether a live status event about <code>conversation</code> concerns this call.
+	 *
+	 * @since 4.0
+	 */
+	public boolean isFor(Conversation conversation) {
+		return ((conversation != null) && conversation.equals(myConversation));
+	}
+
+	/**
+	 * Marks the call as started (<code>STARTING</code>): from now on an end reported for the
+	 * call's Conversation is this call's end.
+	 *
+	 * @since 4.0
+	 */
+	public void markStarted() {
+		myStarted = true;
+	}
+
+	/**
+	 * Whether the call has been reported starting or going live.
+	 *
+	 * @since 4.0
+	 */
+	public boolean hasStarted() {
+		return (myStarted);
+	}
+
+	/**
+	 * Marks the live session as up (<code>IM_LIVE</code>) and wakes up everyone waiting for the answer.
+	 * Later invocations, and invocations after the call ended, are ignored.
+	 *
+	 * @since 4.0
+	 */
+	public synchronized void markLive() {
+		if ((myLive.getCount() > 0) && (myEnded.getCount() > 0)) {
+			myStarted = true;
+			myLiveNanos = System.nanoTime();
+			myAnswered = true;
+			myLive.countDown();
+		}
+	}
+
+	/**
+	 * Marks the call as ended and wakes up everyone waiting on it.
+	 * Later invocations are ignored, so both event handlers that report the end of a call may call it.
+	 * Also releases anybody still waiting for the answer; {@link #isLive()} stays false in that case.
+	 *
+	 * @since 4.0
+	 */
+	public synchronized void markEnded() {
+		if (myEnded.getCount() > 0) {
+			myEndNanos = System.nanoTime();
+			myEnded.countDown();
+			myLive.countDown();
+		}
+	}
+
+	/**
+	 * Whether the target answered, i.e. the live session came up.
+	 *
+	 * @since 4.0
+	 */
+	public boolean isLive() {
+		return (myAnswered);
+	}
+
+	/**
+	 * Waits until the target answers, the call ends, or the timeout expires.
+	 *
+	 * @return
+	 * <ul>
+	 *   <li>true: the live session is up</li>
+	 *   <li>false: the call ended without being answered, or timed out</li>
+	 * </ul>
+	 *
+	 * @since 4.0
+	 */
+	public boolean awaitLive(long timeout, TimeUnit unit) throws InterruptedException {
+		myLive.await(timeout, unit);
+		return (isLive());
+	}
+
+	/**
+	 * Time from ringing the target to the live session coming up in nanoseconds, or -1 if it never did.
+	 *
+	 * @since 4.0
+	 */
+	public long getRingToLiveNanos() {
+		return (isLive() ? (myLiveNanos - myStartNanos) : -1);
+	}
+
+	/**
+	 * <code>System.nanoTime()</code> at which the live session came up; only meaningful once {@link #isLive()}.
+	 *
+	 * @since 4.0
+	 */
+	public long getLiveNanos() {
+		return (myLiveNanos);
+	}
+
+	/**
+	 * Whether the call has ended.
+	 *
+	 * @since 4.0
+	 */
+	public boolean isEnded() {
+		return (myEnded.getCount() == 0);
+	}
+
+	/**
+	 * Waits until the call ends.
+	 *
+	 * @since 4.0
+	 */
+	public void awaitEnd() throws InterruptedException {
+		myEnded.await();
+	}
+
+	/**
+	 * Waits until the call ends or the timeout expires.
+	 *
+	 * @return
+	 * <ul>
+	 *   <li>true: the call has ended</li>
+	 *   <li>false: timed out</li>
+	 * </ul>
+	 *
+	 * @since 4.0
+	 */
+	public boolean awaitEnd(long timeout, TimeUnit unit) throws InterruptedException {
+		return (myEnded.await(timeout, unit));
+	}
+
+	/**
+	 * <code>System.nanoTime()</code> at which the call was started.
+	 *
+	 * @since 4.0
+	 */
+	public long getStartNanos() {
+		return (myStartNanos);
+	}
+
+	/**
+	 * Time from start to end of the call in nanoseconds, or the time elapsed so far if it is still running.
+	 *
+	 * @since 4.0
+	 */
+	public long getDurationNanos() {
+		return ((isEnded() ? myEndNanos : System.nanoTime()) - myStartNanos);
+	}
+}
@@ -0,0 +1,329 @@
+package util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hashed timing wheel: schedules large numbers of short timeouts from a handful of threads.
+ * <br /><br />
+ * Time is divided into ticks; a timeout lands in the wheel bucket of the tick it is due in,
+ * together with the number of full wheel revolutions still to go. One worker thread advances
+ * the wheel tick by tick and hands every expired timeout to a small pool of dispatch threads,
+ * so a slow task never holds up the wheel. Scheduling and cancelling are O(1) and lock-free for
+ * the caller, which is what thousands of concurrent calls each sending DTMF digits need.
+ * <br /><br />
+ * A timeout fires at the first tick boundary at or after its deadline, so tasks run up to one
+ * tick late by design. The timer keeps track of how late tasks actually run (drift), see
+ * {@link #getMeanDriftMicros()} and {@link #getMaxDriftMicros()}.
+ *
+ * @since 4.0
+ */
+public class HashedWheelTimer {
+	/**
+	 * Info/Debug console output message prefix/identifier tag.
+	 *
+	 * @since 4.0
+	 */
+	public static final String MY_CLASS_TAG = "HashedWheelTimer";
+
+	private final long myTickNanos;
+	private final Bucket[] myWheel;
+	private final int myMask;
+	private final Queue<Timeout> myPending = new ConcurrentLinkedQueue<Timeout>();
+	private final ExecutorService myDispatcher;
+	private final Thread myWorker;
+	private final long myStartNanos;
+	private volatile boolean myStopped = false;
+
+	private final AtomicLong myFired = new AtomicLong();
+	private final AtomicLong myTotalDriftNanos = new AtomicLong();
+	private final AtomicLong myMaxDriftNanos = new AtomicLong();
+
+	/**
+	 * Creates and starts a timer.
+	 *
+	 * @param tickDuration
+	 * 	Length of one tick; the timer's resolution.
+	 * @param unit
+	 * 	Unit of <code>tickDuration</code>.
+	 * @param ticksPerWheel
+	 * 	Number of buckets; rounded up to a power of two.
+	 * @param dispatchThreads
+	 * 	Number of threads that run expired tasks.
+	 *
+	 * @since 4.0
+	 */
+	public HashedWheelTimer(long tickDuration, TimeUnit unit, int ticksPerWheel, int dispatchThreads) {
+		myTickNanos = Math.max(1, unit.toNanos(tickDuration));
+		int size = 1;
+		while (size < ticksPerWheel) {
+			size <<= 1;
+		}
+		myWheel = new Bucket[size];
+		for (int i = 0; i < size; i++) {
+			myWheel[i] = new Bucket();
+		}
+		myMask = size - 1;
+		myDispatcher = Executors.newFixedThreadPool(Math.max(1, dispatchThreads), new DaemonThreadFactory(MY_CLASS_TAG + "-dispatch-"));
+
+		myStartNanos = System.nanoTime();
+		myWorker = new Thread(new Worker(), MY_CLASS_TAG + "-worker");
+		myWorker.setDaemon(true);
+		myWorker.start();
+	}
+
+	/**
+	 * Schedules a task to run after a delay.
+	 *
+	 * @since 4.0
+	 */
+	public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+		return (newTimeoutAt(task, System.nanoTime() + unit.toNanos(delay)));
+	}
+
+	/**
+	 * Schedules a task to run at an absolute <code>System.nanoTime()</code> deadline.
+	 * A deadline in the past runs the task at the next tick.
+	 *
+	 * @since 4.0
+	 */
+	public Timeout newTimeoutAt(Runnable task, long deadlineNanos) {
+		if (myStopped) {
+			throw new IllegalStateException(MY_CLASS_TAG + ": timer has been stopped");
+		}
+		Timeout timeout = new Timeout(task, deadlineNanos);
+		myPending.add(timeout);
+		return (timeout);
+	}
+
+	/**
+	 * Stops the worker and dispatch threads; timeouts not yet fired are dropped.
+	 *
+	 * @since 4.0
+	 */
+	public void stop() {
+		myStopped = true;
+		myWorker.interrupt();
+		try {
+			myWorker.join(1000);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		myDispatcher.shutdown();
+	}
+
+	/**
+	 * Number of tasks that have been run.
+	 *
+	 * @since 4.0
+	 */
+	public long getFiredCount() {
+		return (myFired.get());
+	}
+
+	/**
+	 * Mean time, in microseconds, between a task's deadline and the moment it started to run.
+	 *
+	 * @since 4.0
+	 */
+	public long getMeanDriftMicros() {
+		long fired = myFired.get();
+		return ((fired == 0) ? 0 : TimeUnit.NANOSECONDS.toMicros(myTotalDriftNanos.get() / fired));
+	}
+
+	/**
+	 * Largest time, in microseconds, between a task's deadline and the moment it started to run.
+	 *
+	 * @since 4.0
+	 */
+	public long getMaxDriftMicros() {
+		return (TimeUnit.NANOSECONDS.toMicros(myMaxDriftNanos.get()));
+	}
+
+	/**
+	 * One-line drift report for logs.
+	 *
+	 * @since 4.0
+	 */
+	public String getDriftReport() {
+		return (String.format("timer tick = %d us, fired = %d, drift mean = %d us, max = %d us",
+				TimeUnit.NANOSECONDS.toMicros(myTickNanos), getFiredCount(),
+				getMeanDriftMicros(), getMaxDriftMicros()));
+	}
+
+	private void recordDrift(long driftNanos) {
+		if (driftNanos < 0) {
+			driftNanos = 0;
+		}
+		myFired.incrementAndGet();
+		myTotalDriftNanos.addAndGet(driftNanos);
+		long max;
+		while (driftNanos > (max = myMaxDriftNanos.get())) {
+			if (myMaxDriftNanos.compareAndSet(max, driftNanos)) {
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Handle of a scheduled task.
+	 *
+	 * @since 4.0
+	 */
+	public final class Timeout implements Runnable {
+		private static final int ST_PENDING = 0;
+		private static final int ST_CANCELLED = 1;
+		private static final int ST_EXPIRED = 2;
+
+		private final Runnable myTask;
+		private final long myDeadlineNanos;
+		private final AtomicInteger myState = new AtomicInteger(ST_PENDING);
+		private long myRemainingRounds;
+		private Timeout myNext;
+
+		private Timeout(Runnable task, long deadlineNanos) {
+			myTask = task;
+			myDeadlineNanos = deadlineNanos;
+		}
+
+		/**
+		 * Cancels the task if it has not started yet.
+		 *
+		 * @return
+		 * 	true if the task will not run.
+		 *
+		 * @since 4.0
+		 */
+		public boolean cancel() {
+			return (myState.compareAndSet(ST_PENDING, ST_CANCELLED));
+		}
+
+		public boolean isCancelled() {
+			return (myState.get() == ST_CANCELLED);
+		}
+
+		public long getDeadlineNanos() {
+			return (myDeadlineNanos);
+		}
+
+		public void run() {
+			recordDrift(System.nanoTime() - myDeadlineNanos);
+			try {
+				myTask.run();
+			}
+			catch (RuntimeException e) {
+				MySession.myConsole.printf("%s: Timer task failed: %s%n", MY_CLASS_TAG, e);
+			}
+		}
+
+		private boolean expire() {
+			return (myState.compareAndSet(ST_PENDING, ST_EXPIRED));
+		}
+	}
+
+	/**
+	 * Singly linked list of the timeouts that hash to one tick; touched by the worker thread only.
+	 */
+	private static final class Bucket {
+		Timeout head;
+	}
+
+	private class Worker implements Runnable {
+		private long myTick = 0;
+
+		public void run() {
+			while (!myStopped) {
+				long deadline = myStartNanos + ((myTick + 1) * myTickNanos);
+				long sleepNanos;
+				while ((sleepNanos = deadline - System.nanoTime()) > 0) {
+					try {
+						TimeUnit.NANOSECONDS.sleep(sleepNanos);
+					}
+					catch (InterruptedException e) {
+						if (myStopped) {
+							return;
+						}
+					}
+				}
+				transferPending();
+				expireBucket(myWheel[(int)(myTick & myMask)]);
+				myTick++;
+			}
+		}
+
+		private void transferPending() {
+			Timeout timeout;
+			while ((timeout = myPending.poll()) != null) {
+				if (timeout.isCancelled()) {
+					continue;
+				}
+				// Tick in which the deadline falls; never one that has already been processed
+				long due = (timeout.myDeadlineNanos - myStartNanos + myTickNanos - 1) / myTickNanos - 1;
+				if (due < myTick) {
+					due = myTick;
+				}
+				timeout.myRemainingRounds = (due - myTick) / myWheel.length;
+				Bucket bucket = myWheel[(int)(due & myMask)];
+				timeout.myNext = bucket.head;
+				bucket.head = timeout;
+			}
+		}
+
+		private void expireBucket(Bucket bucket) {
+			Timeout previous = null;
+			Timeout timeout = bucket.head;
+			while (timeout != null) {
+				Timeout next = timeout.myNext;
+				boolean remove;
+				if (timeout.isCancelled()) {
+					remove = true;
+				}
+				else if (timeout.myRemainingRounds <= 0) {
+					remove = true;
+					if (timeout.expire()) {
+						myDispatcher.execute(timeout);
+					}
+				}
+				else {
+					timeout.myRemainingRounds--;
+					remove = false;
+				}
+				if (remove) {
+					if (previous == null) {
+						bucket.head = next;
+					}
+					else {
+						previous.myNext = next;
+					}
+					timeout.myNext = null;
+				}
+				else {
+					previous = timeout;
+				}
+				timeout = next;
+			}
+		}
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final String myPrefix;
+		private final AtomicInteger myCount = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			myPrefix = prefix;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, myPrefix + myCount.incrementAndGet());
+			t.setDaemon(true);
+			return (t);
+		}
+	}
+}
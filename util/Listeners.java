@@ -410,8 +410,11 @@ public class Listeners implements
 	 * <ul>
 	 *   <li>RINGING_FOR_ME so we can pick up the call</li>
 	 *   <li>IM_LIVE to indicate that a call is in progress</li>
+	 *   <li>STARTING to indicate that our outgoing call has started ringing</li>
 	 *   <li>RECENTLY_LIVE/NONE to indicate that a call has ended</li>
 	 *  </ul>
+	 * Call events are passed to {@link MySession}, which applies them only to the outgoing call
+	 * of the same Conversation.
 	 * 
 	 * @param obj
 	 * 	The affected Conversation.
@@ -446,10 +449,14 @@ public class Listeners implements
 				MySession.myConsole.println("Conv: Call has ended/never started.");
 				activeConversation = null;
 				activeConversationParticipants = null;
-				mySession.callActive = false;
+				mySession.endCall(affectedConversation);
+				break;
+			case STARTING:
+				mySession.callStarting(affectedConversation);
 				break;
 			case IM_LIVE:
 				MySession.myConsole.println("Conv: Live session is up!");
+				mySession.callLive(affectedConversation);
 				break;
 			default:
 				/*
@@ -794,10 +801,14 @@ public class Listeners implements
 				MySession.myConsole.printf("%s: Call finished.%n", mySession.myTutorialTag);
 				activeConversation = null;
 				activeConversationParticipants = null;
-				mySession.callActive = false;
+				mySession.endCall(conversation);
+				break;
+			case STARTING:
+				mySession.callStarting(conversation);
 				break;
 			case IM_LIVE:
 				MySession.myConsole.printf("%s: Live session is up.%n", mySession.myTutorialTag);
+				mySession.callLive(conversation);
 				break;
 			default:
 /*
@@ -1063,6 +1074,7 @@ public class Listeners implements
 	    }
 	    else if (prop == Account.Property.P_LOGOUT_REASON) {
  	    	Account.LogoutReason logoutReason = affectedAccount.getLogoutReason();
+	    	mySession.myLogoutReason = logoutReason;
 	    	MySession.myConsole.printf("%s: logoutreason = %s%n",
 	    						mySession.myTutorialTag, logoutReason.toString());
 	    }
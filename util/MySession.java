@@ -25,6 +25,7 @@ import java.io.PrintStream;
 import java.util.Locale;
 
 import com.skype.api.Account;
+import com.skype.api.Conversation;
 import com.skype.api.Skype;
 import com.skype.ipc.ClientConfiguration;
 
@@ -155,7 +156,19 @@ public class MySession {
 	 *  
 	 * @since 1.0
 	 */
-    public boolean callActive = false;
+    public volatile boolean callActive = false;
+
+    /**
+	 * Completion handle of the outgoing call currently placed on this session, if any.
+	 * <br /><br />
+	 * Set by {@link #beginCall(Conversation)}; completed by {@link #endCall(Conversation)} when the event handlers
+	 * see the Conversation go non-live.
+	 * 
+	 * @see CallHandle
+	 * 
+	 * @since 4.0
+	 */
+    public volatile CallHandle myCallHandle = null;
     
 	/**
 	 * Indicates whether an SMS is ready to be sent.
@@ -225,7 +238,19 @@ public class MySession {
 	 * 
 	 * @since 1.1
 	 */
-    public Account.Status loginStatus = Account.Status.LOGGED_OUT;
+    public volatile Account.Status loginStatus = Account.Status.LOGGED_OUT;
+
+    /**
+	 * Reason the runtime gave for the last logout of this session's Account, or null if there was none.
+	 * <br /><br />
+	 * Updated by the Account onPropertyChange handler; {@link AccountPool} reports it when it takes
+	 * a kicked account out of rotation.
+	 * 
+	 * @see com.skype.tutorial.util.Listeners#onPropertyChange(com.skype.api.Account, com.skype.api.Account.Property, int, String)
+	 * 
+	 * @since 4.0
+	 */
+    public volatile Account.LogoutReason myLogoutReason = null;
     
 	/**
 	 * Datagram stream ID, used by Tutorial 11.
@@ -259,6 +284,17 @@ public class MySession {
 	 */
     public static final int PORT_NUM = 8963;
 
+    /**
+	 * SkypeKit runtime port number used by <em>this</em> session.
+	 * <br /><br />
+	 * Defaults to {@link #PORT_NUM}; a call generator that runs several sessions side by side
+	 * gives each one its own runtime (and therefore its own port) through
+	 * {@link #doCreateSession(String, String, String, int)}.
+	 * 
+	 * @since 4.0
+	 */
+    public int myPortNum = PORT_NUM;
+
     /**
 	 * Creates <em>most</em> everything needed for a tutorial session; the Account instance is populated during sign-in. 
 	 * 
@@ -289,6 +325,28 @@ public class MySession {
 /*	public boolean doCreateSession(String tutorialTag, String accountName, AppKeyPairMgr myAppKeyPairMgr) {
 */
     public boolean doCreateSession(String tutorialTag, String accountName, String pathName) {
+
+    	return (doCreateSession(tutorialTag, accountName, pathName, PORT_NUM));
+    }
+
+    /**
+	 * Creates a session bound to the SkypeKit runtime listening on a specific port.
+	 * 
+	 * @param tutorialTag
+	 *  The tutorial's class name. If null or the empty string, default it to <code>T_TAG_DFLT</code>.
+	 * @param accountName
+	 *  The <em>name</em> of the account to use for this session.
+	 * @param pathName
+	 * 	Pathname of the certificate file, which should be a PEM file.
+	 * @param portNum
+	 * 	Port number of the SkypeKit runtime this session connects to.
+	 * 
+	 * @return
+	 *  Same as {@link #doCreateSession(String, String, String)}.
+	 * 
+	 * @since 4.0
+	 */
+    public boolean doCreateSession(String tutorialTag, String accountName, String pathName, int portNum) {
 		
  		if ((tutorialTag != null) && (tutorialTag.length() != 0)) {
 			myTutorialTag = new String(tutorialTag);
@@ -307,9 +365,10 @@ public class MySession {
 		// Set up our session with the SkypeKit runtime...
 		// Note that most of the Skype methods - including static methods and GetVersionString - will
 		// fail and/or throw an exception if invoked prior to successful initialization!
+		myPortNum = portNum;
 		mySkype = new Skype();
 		myClientConfiguration = new ClientConfiguration();
-		myClientConfiguration.setTcpTransport(IP_ADDR, PORT_NUM);
+		myClientConfiguration.setTcpTransport(IP_ADDR, myPortNum);
 		myClientConfiguration.setCertificate(pathName);
 		myListeners = new Listeners(this);
 		myConsole.printf("%s: Instantiated Skype, ClientConfiguration, and Listeners instances...%n", myTutorialTag);
@@ -368,6 +427,85 @@ public class MySession {
 		myConsole.printf("%s: Tore down session instance%n", myTutorialTag);
 	}
 
+	/**
+	 * Marks the start of an outgoing call on this session.
+	 * 
+	 * @param conversation
+	 * 	The Conversation the call is placed in; live status events of other Conversations
+	 * 	do not affect the call.
+	 * 
+	 * @return
+	 * 	New completion handle for the call, also stored in {@link #myCallHandle}.
+	 * 
+	 * @since 4.0
+	 */
+	public CallHandle beginCall(Conversation conversation) {
+
+		CallHandle callHandle = new CallHandle(conversation);
+		myCallHandle = callHandle;
+		callActive = true;
+		return (callHandle);
+	}
+
+	/**
+	 * Marks the outgoing call on this session as started (its Conversation reported
+	 * <code>STARTING</code>), if the event is about the call's Conversation.
+	 * 
+	 * @since 4.0
+	 */
+	public void callStarting(Conversation conversation) {
+
+		CallHandle callHandle = myCallHandle;
+		if ((callHandle != null) && callHandle.isFor(conversation)) {
+			callHandle.markStarted();
+		}
+	}
+
+	/**
+	 * Marks the outgoing call on this session as answered (its live session is up),
+	 * completing the answer wait of {@link #myCallHandle}, if any and if the event is about
+	 * the call's Conversation.
+	 * 
+	 * @see com.skype.tutorial.util.Listeners#onPropertyChange(com.skype.api.Conversation, com.skype.api.Conversation.Property, int, String)
+	 * @see com.skype.tutorial.util.Listeners#onConversationListChange(Skype, com.skype.api.Conversation, com.skype.api.Conversation.ListType, boolean)
+	 * 
+	 * @since 4.0
+	 */
+	public void callLive(Conversation conversation) {
+
+		CallHandle callHandle = myCallHandle;
+		if ((callHandle != null) && callHandle.isFor(conversation)) {
+			callHandle.markLive();
+		}
+	}
+
+	/**
+	 * Marks the end of the call on this session: clears {@link #callActive} and completes
+	 * the outgoing call's {@link #myCallHandle}, if any.
+	 * <br /><br />
+	 * The end is ignored if it is about another Conversation, or if the call has not started
+	 * yet: on a reused session that is the previous call in the same Conversation ending late,
+	 * or being reported a second time by the other event handler.
+	 * 
+	 * @see com.skype.tutorial.util.Listeners#onPropertyChange(com.skype.api.Conversation, com.skype.api.Conversation.Property, int, String)
+	 * @see com.skype.tutorial.util.Listeners#onConversationListChange(Skype, com.skype.api.Conversation, com.skype.api.Conversation.ListType, boolean)
+	 * 
+	 * @since 4.0
+	 */
+	public void endCall(Conversation conversation) {
+
+		CallHandle callHandle = myCallHandle;
+		if (callHandle == null) {
+			callActive = false;
+			return;
+		}
+		if (!callHandle.isFor(conversation) || !callHandle.hasStarted()) {
+			return;
+		}
+		callActive = false;
+		callHandle.markEnded();
+	}
+
 	/**
 	 * Retrieves the current login status of this session's Account.
 	 * @return
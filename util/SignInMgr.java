@@ -95,7 +95,7 @@ public class SignInMgr {
 			// Already logged in...
 			MySession.myConsole.printf("%s: %s already logged in! (IP Addr %s:%d)%n",
 								myTutorialTag, mySession.myAccountName,
-								MySession.IP_ADDR, MySession.PORT_NUM);
+								MySession.IP_ADDR, mySession.myPortNum);
 			return (true);
 		}
 
@@ -122,13 +122,13 @@ public class SignInMgr {
 			// Successful Login
 			MySession.myConsole.printf("%s: %s Logged In (IP Addr %s:%d)%n",
 								myTutorialTag, mySession.myAccountName,
-								MySession.IP_ADDR, MySession.PORT_NUM);
+								MySession.IP_ADDR, mySession.myPortNum);
 			return (true);
 		}
 		else {
 			MySession.myConsole.printf("%s: Login timed out for %s! (IP Addr %s:%d)%n",
 								myTutorialTag, mySession.myAccountName,
-								MySession.IP_ADDR, MySession.PORT_NUM);
+								MySession.IP_ADDR, mySession.myPortNum);
 			return (false);
 		}
 	}
@@ -171,7 +171,7 @@ public class SignInMgr {
 			// Already logged out...
 			MySession.myConsole.printf("%s: %s already logged out! (IP Addr %s:%d)%n",
 								myTutorialTag, mySession.myAccountName,
-								MySession.IP_ADDR, MySession.PORT_NUM);
+								MySession.IP_ADDR, mySession.myPortNum);
 			return;
 		}
 
@@ -200,12 +200,12 @@ public class SignInMgr {
 			// Successful Logout
 			MySession.myConsole.printf("%s: %s logged out (IP Addr %s:%d)%n",
 								myTutorialTag, mySession.myAccountName,
-								MySession.IP_ADDR, MySession.PORT_NUM);
+								MySession.IP_ADDR, mySession.myPortNum);
 		}
 		else {
 			MySession.myConsole.printf("%s: Logout timed out for %s! (IP Addr %s:%d)%n",
 								myTutorialTag, mySession.myAccountName,
-								MySession.IP_ADDR, MySession.PORT_NUM);
+								MySession.IP_ADDR, mySession.myPortNum);
 		}
 	}
 